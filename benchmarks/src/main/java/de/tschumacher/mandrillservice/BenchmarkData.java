@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.transport.MandrillTransport;
+
+final class BenchmarkData {
+
+  static final MandrillTransport NO_OP_TRANSPORT =
+      (templateName, message, streamedAttachments) -> new MandrillMessageStatus[0];
+
+  private BenchmarkData() {}
+
+  /**
+   * Every tenth address is on the staging domain matched by the debug regex.
+   */
+  static List<String> emails(int count) {
+    final List<String> emails = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      emails.add(i % 10 == 0 ? "user" + i + "@staging.example.com" : "user" + i + "@example.org");
+    }
+    return emails;
+  }
+
+  static List<de.tschumacher.mandrillservice.domain.Recipient> recipients(List<String> emails) {
+    final List<de.tschumacher.mandrillservice.domain.Recipient> recipients =
+        new ArrayList<>(emails.size());
+    for (final String email : emails) {
+      final de.tschumacher.mandrillservice.domain.Recipient recipient =
+          new de.tschumacher.mandrillservice.domain.Recipient();
+      recipient.setEmail(email);
+      recipient.setName("Name " + email);
+      recipient.setType(de.tschumacher.mandrillservice.domain.Recipient.Type.TO);
+      recipients.add(recipient);
+    }
+    return recipients;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MessageContent;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+
+/**
+ * Reading and Base64 encoding of attachments in {@code createAttachments}, without the attachment
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class CreateAttachmentsBenchmark {
+
+  @Param({"0", "1048576", "20971520"})
+  public int attachmentBytes;
+
+  private DefaultMandrillService service;
+  private File file;
+  private List<MandrillServiceAttachment> attachments;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.service = new DefaultMandrillService(
+        MandrillServiceConfig.newBuilder().withMandrillKey("benchmark").build(),
+        BenchmarkData.NO_OP_TRANSPORT);
+
+    final byte[] content = new byte[this.attachmentBytes];
+    new Random(42).nextBytes(content);
+    this.file = File.createTempFile("mandrill-benchmark", ".bin");
+    Files.write(this.file.toPath(), content);
+    this.attachments = Collections.singletonList(MandrillServiceAttachment.newBuilder()
+        .withName("attachment.bin").withType("application/octet-stream").withFile(this.file)
+        .build());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    this.service.close();
+    Files.deleteIfExists(this.file.toPath());
+  }
+
+  @Benchmark
+  public List<MessageContent> createAttachments() throws IOException {
+    return this.service.createAttachments(this.attachments);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVar;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.MessagePrototype;
+
+/**
+ * Recipient mapping, debug rewriting and merge var conversion of {@code createMessage}, with the
+ * replacements on every message or once in a registered {@link MessagePrototype}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateMessageBenchmark {
+
+  @Param({"1", "100", "1000", "10000"})
+  public int recipients;
+
+  @Param({"10"})
+  public int replacements;
+
+  private DefaultMandrillService service;
+  private DefaultMandrillService debugService;
+  private DefaultMandrillService prototypeService;
+  private List<String> emails;
+  private List<de.tschumacher.mandrillservice.domain.Recipient> typedRecipients;
+  private Map<String, String> globalReplacements;
+  private MandrillServiceMessage message;
+  private MandrillServiceMessage prototypedMessage;
+
+  @Setup
+  public void setUp() {
+    final MandrillServiceConfig config =
+        MandrillServiceConfig.newBuilder().withMandrillKey("benchmark").build();
+    final MandrillServiceConfig debugConfig = MandrillServiceConfig.newBuilder()
+        .withMandrillKey("benchmark").withIsDebug(true).withDebugMail("debug@example.com")
+        .withDebugRegex(".*@staging\\.example\\.com").build();
+    this.service = new DefaultMandrillService(config, BenchmarkData.NO_OP_TRANSPORT);
+    this.debugService = new DefaultMandrillService(debugConfig, BenchmarkData.NO_OP_TRANSPORT);
+    this.prototypeService = new DefaultMandrillService(config, BenchmarkData.NO_OP_TRANSPORT);
+
+    this.emails = BenchmarkData.emails(this.recipients);
+    this.typedRecipients = BenchmarkData.recipients(this.emails);
+    this.globalReplacements = new HashMap<>();
+    for (int i = 0; i < this.replacements; i++) {
+      this.globalReplacements.put("key" + i, "value" + i);
+    }
+    this.message = MandrillServiceMessage.newBuilder().withTemplate("template")
+        .withSubject("subject").withRecipients(this.typedRecipients)
+        .withReplacements(this.globalReplacements).build();
+    this.prototypeService.registerPrototype(MessagePrototype.newBuilder().withTemplate("template")
+        .withSubject("subject").withReplacements(this.globalReplacements).build());
+    this.prototypedMessage = MandrillServiceMessage.newBuilder().withTemplate("template")
+        .withRecipients(this.typedRecipients).build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.service.close();
+    this.debugService.close();
+    this.prototypeService.close();
+  }
+
+  @Benchmark
+  public MandrillMessage createMessage() throws IOException {
+    return this.service.createMessage(this.message);
+  }
+
+  @Benchmark
+  public MandrillMessage createDebugMessage() throws IOException {
+    return this.debugService.createMessage(this.message);
+  }
+
+  @Benchmark
+  public MandrillMessage createPrototypedMessage() throws IOException {
+    return this.prototypeService.createMessage(this.prototypedMessage);
+  }
+
+  @Benchmark
+  public List<Recipient> createRecipientsFromRecipients() {
+    return this.service.createRecipientsFromRecipients(this.typedRecipients);
+  }
+
+  @Benchmark
+  public List<Recipient> createRecipientsFromEmails() {
+    return this.service.createRecipientsFromEmails(this.emails);
+  }
+
+  @Benchmark
+  public List<Recipient> createDebugRecipientsFromRecipients() {
+    return this.debugService.createDebugRecipientsFromRecipients(this.typedRecipients);
+  }
+
+  @Benchmark
+  public List<Recipient> createDebugRecipientsFromEmails() {
+    return this.debugService.createDebugRecipientsFromEmails(this.emails);
+  }
+
+  @Benchmark
+  public List<MergeVar> createMergeVars() {
+    return this.service.createMergeVars(this.globalReplacements);
+  }
+}
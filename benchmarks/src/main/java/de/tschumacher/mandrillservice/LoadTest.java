@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.metrics.LatencyHistogram;
+import de.tschumacher.mandrillservice.stub.MandrillStubServer;
+
+/**
+ * Closed-loop load test of {@link DefaultMandrillService} against {@link MandrillStubServer}: for
+ * every concurrency level, that many threads send synchronously one after another, and the
+ * throughput and latency percentiles of the measured interval are printed. Latencies include
+ * retries. Configured by system properties:
+ *
+ * <ul>
+ * <li>{@code concurrency} comma separated levels, default {@code 1,8,32,128}
+ * <li>{@code seconds} measured per level, default 10, after {@code warmupSeconds}, default 3
+ * <li>{@code recipients} per message, default 10
+ * <li>{@code latencyMillis} and {@code latencyJitterMillis} of the stub, default 20 and 10
+ * <li>{@code errorRate} of the stub, default 0
+ * <li>{@code rateLimit} of the stub in requests per second, default 0 for none
+ * <li>{@code concurrencyLimitMax} of the service, 0 to disable the adaptive limiter, default the
+ * library default
+ * </ul>
+ */
+public final class LoadTest {
+
+  private LoadTest() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final List<Integer> levels = new ArrayList<>();
+    for (final String level : System.getProperty("concurrency", "1,8,32,128").split(",")) {
+      levels.add(Integer.parseInt(level.trim()));
+    }
+    final long seconds = Long.getLong("seconds", 10);
+    final long warmupSeconds = Long.getLong("warmupSeconds", 3);
+    final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+        .withTemplate("template").withSubject("subject")
+        .withEmails(BenchmarkData.emails(Integer.getInteger("recipients", 10))).build();
+
+    try (MandrillStubServer stub = MandrillStubServer.newBuilder()
+        .withLatencyMillis(Long.getLong("latencyMillis", 20))
+        .withLatencyJitterMillis(Long.getLong("latencyJitterMillis", 10))
+        .withErrorRate(Double.parseDouble(System.getProperty("errorRate", "0")))
+        .withRateLimitPerSecond(Integer.getInteger("rateLimit", 0))
+        .withThreads(levels.stream().mapToInt(Integer::intValue).max().orElse(1) + 8).start()) {
+      System.out.printf("%11s %10s %8s %12s %10s %10s %10s%n", "concurrency", "sends", "failed",
+          "sends/s", "p50 ms", "p99 ms", "p999 ms");
+      for (final int level : levels) {
+        run(stub, level, message, warmupSeconds, seconds);
+      }
+    }
+  }
+
+  private static void run(MandrillStubServer stub, int concurrency,
+      MandrillServiceMessage message, long warmupSeconds, long seconds)
+      throws InterruptedException {
+    final MandrillServiceConfig.Builder builder = MandrillServiceConfig.newBuilder()
+        .withMandrillKey("load-test").withApiRootUrl(stub.getRootUrl())
+        .withMaxConnections(concurrency).withMaxConnectionsPerRoute(concurrency)
+        .withCircuitBreakerFailureThreshold(Integer.MAX_VALUE);
+    if (System.getProperty("concurrencyLimitMax") != null) {
+      builder.withConcurrencyLimitMax(Integer.getInteger("concurrencyLimitMax"));
+    }
+    final MandrillServiceConfig config = builder.build();
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final AtomicLong failed = new AtomicLong();
+
+    try (DefaultMandrillService service = new DefaultMandrillService(config)) {
+      final long start = System.nanoTime();
+      final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      final long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+      final CountDownLatch done = new CountDownLatch(concurrency);
+      for (int i = 0; i < concurrency; i++) {
+        final Thread worker = new Thread(() -> {
+          try {
+            long now = System.nanoTime();
+            while (now < end) {
+              boolean success = true;
+              try {
+                service.sendMail(message);
+              } catch (MandrillServiceException e) {
+                success = false;
+              }
+              final long sent = System.nanoTime();
+              if (now >= measureFrom) {
+                latencies.record(TimeUnit.NANOSECONDS.toMicros(sent - now));
+                if (!success) {
+                  failed.incrementAndGet();
+                }
+              }
+              now = sent;
+            }
+          } finally {
+            done.countDown();
+          }
+        }, "load-test-" + i);
+        worker.setDaemon(true);
+        worker.start();
+      }
+      done.await();
+    }
+
+    System.out.printf("%11d %10d %8d %12.1f %10.2f %10.2f %10.2f%n", concurrency,
+        latencies.getCount(), failed.get(), (double) latencies.getCount() / seconds,
+        millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+        millis(latencies.getValueAtPercentile(99.9)));
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+}
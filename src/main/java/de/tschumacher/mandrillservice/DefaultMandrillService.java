@@ -13,67 +13,511 @@
  */
 package de.tschumacher.mandrillservice;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microtripit.mandrillapp.lutung.MandrillApi;
 import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
 import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
 import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVar;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVarBucket;
 import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MessageContent;
 import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
 
+import de.tschumacher.mandrillservice.attachment.AttachmentCache;
+import de.tschumacher.mandrillservice.attachment.AttachmentPipeline;
+import de.tschumacher.mandrillservice.batch.ChunkExecutor;
+import de.tschumacher.mandrillservice.batch.ChunkExecutor.Outcome;
+import de.tschumacher.mandrillservice.batch.RecipientChunks;
 import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
 import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
 import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.MessagePrototype;
+import de.tschumacher.mandrillservice.domain.SendResult;
 import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.exception.PartialSendException;
+import de.tschumacher.mandrillservice.idempotency.IdempotencyCache;
+import de.tschumacher.mandrillservice.metrics.MandrillServiceMetrics;
+import de.tschumacher.mandrillservice.resilience.AdaptiveConcurrencyLimiter;
+import de.tschumacher.mandrillservice.resilience.CircuitBreaker;
+import de.tschumacher.mandrillservice.resilience.MandrillCall;
+import de.tschumacher.mandrillservice.resilience.RateLimiter;
+import de.tschumacher.mandrillservice.resilience.RetryPolicy;
+import de.tschumacher.mandrillservice.routing.RecipientRouter;
+import de.tschumacher.mandrillservice.suppression.SuppressionCache;
+import de.tschumacher.mandrillservice.transport.DefaultMandrillTransport;
+import de.tschumacher.mandrillservice.transport.LutungMandrillTransport;
+import de.tschumacher.mandrillservice.transport.MandrillTransport;
 
 
 public class DefaultMandrillService implements MandrillService {
 
   private final MandrillServiceConfig config;
-  private final MandrillApi mandrillApi;
-
+  private final MandrillTransport transport;
+  private final AttachmentCache attachmentCache;
+  private final RetryPolicy retryPolicy;
+  private final CircuitBreaker circuitBreaker;
+  private final RateLimiter rateLimiter;
+  private final MandrillServiceMetrics metrics;
+  private final IdempotencyCache idempotencyCache;
+  private final ChunkExecutor chunkExecutor;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+  private final SuppressionCache suppressionCache;
+  private final AttachmentPipeline attachmentPipeline;
+  private final RecipientRouter recipientRouter;
+  private final Map<String, MessagePrototype> prototypes = new ConcurrentHashMap<>();
+  private volatile ExecutorService asyncExecutor;
+  private volatile boolean closed;
 
 
   public DefaultMandrillService(final MandrillServiceConfig config) {
-    super();
-    this.config = config;
-    this.mandrillApi = new MandrillApi(config.getMandrillKey());
+    this(config, new DefaultMandrillTransport(config));
   }
 
   // for testing
   public DefaultMandrillService(MandrillServiceConfig config, MandrillApi mandrillApi) {
+    this(config, new LutungMandrillTransport(mandrillApi, config.getMetrics()));
+  }
+
+  public DefaultMandrillService(MandrillServiceConfig config, MandrillTransport transport) {
     super();
     this.config = config;
-    this.mandrillApi = mandrillApi;
+    this.transport = transport;
+    this.attachmentCache = config.getAttachmentCacheMaxBytes() > 0
+        ? new AttachmentCache(config.getAttachmentCacheMaxBytes()) : null;
+    this.retryPolicy = new RetryPolicy(config);
+    this.circuitBreaker = new CircuitBreaker(config);
+    this.rateLimiter = new RateLimiter(config);
+    this.metrics = config.getMetrics() != null ? config.getMetrics() : MandrillServiceMetrics.noOp();
+    this.idempotencyCache = createIdempotencyCache(config);
+    this.chunkExecutor = new ChunkExecutor(config.getChunkParallelism());
+    this.concurrencyLimiter = config.getConcurrencyLimitMax() > 0
+        ? new AdaptiveConcurrencyLimiter(config, this.metrics::recordConcurrencyLimit) : null;
+    this.suppressionCache = createSuppressionCache(config);
+    this.attachmentPipeline = config.getAttachmentPrefetch() > 0 ? new AttachmentPipeline(
+        Math.max(1, config.getAttachmentIoThreads()), config.getAttachmentPrefetch()) : null;
+    this.recipientRouter = RecipientRouter.of(config);
   }
 
 
   @Override
   public void sendMail(MandrillServiceMessage message) {
+    sendMailWithResult(message);
+  }
+
+  @Override
+  public SendResult sendMailWithResult(MandrillServiceMessage message) {
+    return sendMailWithResult(message, null);
+  }
+
+  private SendResult sendMailWithResult(MandrillServiceMessage message,
+      Future<List<MessageContent>> preparedAttachments) {
+    final String idempotencyKey = message.getIdempotencyKey();
+    if (idempotencyKey == null || this.idempotencyCache == null) {
+      return send(message, preparedAttachments);
+    }
+    // a duplicate waits for the message with its key and takes over if that one fails
+    while (!this.idempotencyCache.tryAcquire(idempotencyKey)) {
+      if (this.idempotencyCache.whenDone(idempotencyKey).join()) {
+        cancel(preparedAttachments);
+        return SendResult.duplicate();
+      }
+    }
+    return sendAcquired(message, preparedAttachments);
+  }
+
+  /**
+   * Sends a message whose idempotency key was acquired.
+   */
+  private SendResult sendAcquired(MandrillServiceMessage message,
+      Future<List<MessageContent>> preparedAttachments) {
+    final String idempotencyKey = message.getIdempotencyKey();
+    SendResult result = null;
+    try {
+      result = send(message, preparedAttachments);
+      return result;
+    } finally {
+      if (result != null) {
+        markSent(idempotencyKey);
+      } else {
+        this.idempotencyCache.release(idempotencyKey);
+      }
+    }
+  }
+
+  private SendResult send(MandrillServiceMessage message,
+      Future<List<MessageContent>> preparedAttachments) {
+    final List<String> suppressed = findSuppressedRecipients(message);
+    if (!suppressed.isEmpty()) {
+      if (this.config.getSuppressionListener() != null) {
+        this.config.getSuppressionListener().onSuppressed(message, suppressed);
+      }
+      if (suppressed.size() == countRecipients(message)) {
+        cancel(preparedAttachments);
+        return SendResult.of(null, suppressed);
+      }
+    }
+
+    this.rateLimiter.acquire(countRecipients(message) - suppressed.size());
     try {
-      final MandrillMessage mandrillMessage = createMessage(message);
-      this.mandrillApi.messages().sendTemplate(message.getTemplate(), null, mandrillMessage, false);
+      final MandrillMessage mandrillMessage =
+          createMessage(message, preparedAttachments, new HashSet<>(suppressed));
+      final List<MandrillServiceAttachment> streamedAttachments =
+          getStreamedAttachments(message.getAttachments());
+      final SendResult result = sendChunks(message.getTemplate(), mandrillMessage,
+          streamedAttachments, suppressed, message.getIdempotencyKey());
+      if (!result.getFailures().isEmpty()) {
+        this.metrics.recordError(message.getTemplate());
+        throw new PartialSendException(result, result.getFailures().get(0));
+      }
+      this.metrics.recordSuccess(message.getTemplate());
+      return result;
+    } catch (PartialSendException e) {
+      throw e;
     } catch (MandrillApiError | IOException e) {
+      this.metrics.recordError(message.getTemplate());
+      throw new MandrillServiceException(e);
+    } catch (RuntimeException e) {
+      this.metrics.recordError(message.getTemplate());
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the chunks of the message. If some chunks fail, the result is partial: the recipients of
+   * accepted chunks keep their statuses. With an idempotency key every chunk gets a key of its own,
+   * so a retry with the same key only sends the chunks that were not accepted; the recipients of
+   * the chunks it skips are not in its result.
+   *
+   * @throws MandrillApiError or IOException if every chunk failed
+   */
+  private SendResult sendChunks(String template, MandrillMessage mandrillMessage,
+      List<MandrillServiceAttachment> streamedAttachments, List<String> suppressed,
+      String idempotencyKey) throws MandrillApiError, IOException {
+    final boolean idempotent = idempotencyKey != null;
+    final List<MandrillMessage> chunks =
+        RecipientChunks.split(mandrillMessage, this.config.getChunkSize());
+    if (chunks.size() == 1) {
+      final MandrillMessageStatus[] statuses = this.retryPolicy.call(() -> sendTemplate(template,
+          mandrillMessage, streamedAttachments), this.circuitBreaker, idempotent);
+      recordSuppressions(statuses);
+      return SendResult.of(statuses, suppressed);
+    }
+
+    final List<MandrillMessage> pending = new ArrayList<>(chunks.size());
+    final List<String> chunkKeys = new ArrayList<>(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      final String chunkKey = idempotent && this.idempotencyCache != null
+          ? idempotencyKey + "#" + i : null;
+      // the message key is held, so a chunk key that is taken was sent by an earlier attempt
+      if (chunkKey == null || this.idempotencyCache.tryAcquire(chunkKey)) {
+        pending.add(chunks.get(i));
+        chunkKeys.add(chunkKey);
+      }
+    }
+    final List<MandrillCall<MandrillMessageStatus[]>> calls = new ArrayList<>(pending.size());
+    for (final MandrillMessage chunk : pending) {
+      calls.add(() -> this.retryPolicy.call(() -> sendTemplate(template, chunk,
+          streamedAttachments), this.circuitBreaker, idempotent));
+    }
+    final List<Outcome<MandrillMessageStatus[]>> outcomes =
+        this.chunkExecutor.invokeAllSettled(calls);
+    final List<MandrillMessageStatus> statuses = new ArrayList<>(mandrillMessage.getTo().size());
+    final List<String> failed = new ArrayList<>();
+    final List<Exception> failures = new ArrayList<>();
+    for (int i = 0; i < outcomes.size(); i++) {
+      final Outcome<MandrillMessageStatus[]> outcome = outcomes.get(i);
+      final String chunkKey = chunkKeys.get(i);
+      if (outcome.getFailure() != null) {
+        failures.add(outcome.getFailure());
+        for (final Recipient recipient : pending.get(i).getTo()) {
+          failed.add(recipient.getEmail());
+        }
+        if (chunkKey != null) {
+          this.idempotencyCache.release(chunkKey);
+        }
+      } else {
+        if (outcome.getValue() != null) {
+          statuses.addAll(Arrays.asList(outcome.getValue()));
+        }
+        if (chunkKey != null) {
+          markSent(chunkKey);
+        }
+      }
+    }
+    if (!failures.isEmpty() && failures.size() == chunks.size()) {
+      for (int i = 1; i < failures.size(); i++) {
+        failures.get(0).addSuppressed(failures.get(i));
+      }
+      ChunkExecutor.rethrow(failures.get(0));
+    }
+
+    final MandrillMessageStatus[] accepted = statuses.toArray(new MandrillMessageStatus[0]);
+    recordSuppressions(accepted);
+    return failures.isEmpty() ? SendResult.of(accepted, suppressed)
+        : SendResult.partial(accepted, suppressed, failed, failures);
+  }
+
+  private void recordSuppressions(MandrillMessageStatus[] statuses) {
+    if (this.suppressionCache != null && !this.config.isDebug()) {
+      this.suppressionCache.record(statuses);
+    }
+  }
+
+  private MandrillMessageStatus[] sendTemplate(String template, MandrillMessage mandrillMessage,
+      List<MandrillServiceAttachment> streamedAttachments) throws MandrillApiError, IOException {
+    if (this.concurrencyLimiter != null) {
+      this.concurrencyLimiter.acquire();
+    }
+    final long start = System.nanoTime();
+    Exception failure = null;
+    try {
+      return this.transport.sendTemplate(template, mandrillMessage, streamedAttachments);
+    } catch (MandrillApiError | IOException | RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      final long rtt = System.nanoTime() - start;
+      this.metrics.recordApiLatency(template, rtt);
+      if (this.concurrencyLimiter != null) {
+        // a streamed upload takes as long as the source needs, which says nothing about the API
+        if (failure == null && streamedAttachments.isEmpty()) {
+          this.concurrencyLimiter.onSuccess(rtt);
+        } else if (failure != null && this.retryPolicy.isTransient(failure)) {
+          this.concurrencyLimiter.onDropped(rtt);
+        } else {
+          this.concurrencyLimiter.onIgnored();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return current limit of concurrent API calls, 0 if the adaptive limiter is disabled
+   */
+  public int getConcurrencyLimit() {
+    return this.concurrencyLimiter == null ? 0 : this.concurrencyLimiter.getLimit();
+  }
+
+  @Override
+  public CompletableFuture<SendResult> sendMailAsync(MandrillServiceMessage message) {
+    if (this.closed) {
+      return rejected();
+    }
+    // duplicates and fully suppressed messages stop before their attachments are read
+    final boolean acquired = message.getIdempotencyKey() != null && this.idempotencyCache != null;
+    if (acquired && !this.idempotencyCache.tryAcquire(message.getIdempotencyKey())) {
+      return this.idempotencyCache.whenDone(message.getIdempotencyKey())
+          .thenCompose(sent -> sent ? CompletableFuture.completedFuture(SendResult.duplicate())
+              : sendMailAsync(message));
+    }
+    final CompletableFuture<List<MessageContent>> preparedAttachments =
+        isFullySuppressed(message) ? null : prepareAttachments(message);
+    try {
+      final CompletableFuture<SendResult> future = CompletableFuture.supplyAsync(
+          () -> acquired ? sendAcquired(message, preparedAttachments)
+              : send(message, preparedAttachments),
+          getAsyncExecutor());
+      if (preparedAttachments != null) {
+        future.whenComplete((result, e) -> this.attachmentPipeline.release());
+      }
+      return future;
+    } catch (RejectedExecutionException e) {
+      if (preparedAttachments != null) {
+        preparedAttachments.cancel(false);
+        this.attachmentPipeline.release();
+      }
+      if (acquired) {
+        this.idempotencyCache.release(message.getIdempotencyKey());
+      }
+      final CompletableFuture<SendResult> future = new CompletableFuture<>();
+      future.completeExceptionally(new MandrillServiceException(e));
+      return future;
+    }
+  }
+
+  private static CompletableFuture<SendResult> rejected() {
+    final CompletableFuture<SendResult> future = new CompletableFuture<>();
+    future.completeExceptionally(
+        new MandrillServiceException(new RejectedExecutionException("service is closed")));
+    return future;
+  }
+
+  @Override
+  public void close() {
+    final ExecutorService executor;
+    synchronized (this) {
+      this.closed = true;
+      executor = this.asyncExecutor;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    this.chunkExecutor.close();
+    if (this.attachmentPipeline != null) {
+      this.attachmentPipeline.close();
+    }
+    this.transport.close();
+    if (this.idempotencyCache != null) {
+      try {
+        this.idempotencyCache.close();
+      } catch (IOException e) {
+        // keys were flushed after every send
+      }
+    }
+    if (this.suppressionCache != null) {
+      try {
+        this.suppressionCache.close();
+      } catch (IOException e) {
+        throw new MandrillServiceException(e);
+      }
+    }
+  }
+
+  public CacheStats getAttachmentCacheStats() {
+    if (this.attachmentCache == null) {
+      return new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+    return this.attachmentCache.stats();
+  }
+
+  private static IdempotencyCache createIdempotencyCache(MandrillServiceConfig config) {
+    if (config.getIdempotencyTtlMillis() <= 0) {
+      return null;
+    }
+    try {
+      return new IdempotencyCache(config.getIdempotencyTtlMillis(), config.getIdempotencyMaxKeys(),
+          config.getIdempotencyFile());
+    } catch (IOException e) {
+      throw new MandrillServiceException(e);
+    }
+  }
+
+  private static SuppressionCache createSuppressionCache(MandrillServiceConfig config) {
+    if (config.getSuppressionTtlMillis() <= 0) {
+      return null;
+    }
+    try {
+      return new SuppressionCache(config.getSuppressionTtlMillis(),
+          config.getSuppressionMaxEntries(), config.getSuppressionFile());
+    } catch (IOException e) {
       throw new MandrillServiceException(e);
     }
   }
 
+  private void markSent(String idempotencyKey) {
+    try {
+      this.idempotencyCache.markSent(idempotencyKey);
+    } catch (IOException e) {
+      // the message was sent, the key is only lost for the next restart
+    }
+  }
+
+  private ExecutorService getAsyncExecutor() {
+    ExecutorService executor = this.asyncExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        if (this.closed) {
+          throw new RejectedExecutionException("service is closed");
+        }
+        executor = this.asyncExecutor;
+        if (executor == null) {
+          executor = createAsyncExecutor();
+          this.asyncExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  private ExecutorService createAsyncExecutor() {
+    if (this.config.getAsyncThreadMode() == MandrillServiceConfig.ThreadMode.VIRTUAL) {
+      final ExecutorService executor = VirtualThreads.newExecutor("mandrill-dispatch-");
+      if (executor != null) {
+        return executor;
+      }
+    }
+    final int threads = this.config.getAsyncThreads();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<>(this.config.getAsyncQueueSize()),
+        new ThreadFactoryBuilder().setNameFormat("mandrill-dispatch-%d").setDaemon(true).build(),
+        createRejectionHandler());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private RejectedExecutionHandler createRejectionHandler() {
+    if (this.config.getAsyncRejectionPolicy() == MandrillServiceConfig.RejectionPolicy.CALLER_RUNS) {
+      // unlike CallerRunsPolicy, which drops the task once the pool is shut down
+      return (task, executor) -> {
+        if (executor.isShutdown()) {
+          throw new RejectedExecutionException("service is closed");
+        }
+        task.run();
+      };
+    }
+    return new ThreadPoolExecutor.AbortPolicy();
+  }
+
 
 
-  private MandrillMessage createMessage(MandrillServiceMessage message) throws IOException {
-    final MandrillMessage mandrillMessage = createDefaultMessage();
+  /**
+   * Registers the prototype for messages of its template, replacing an earlier one.
+   */
+  public void registerPrototype(MessagePrototype prototype) {
+    this.prototypes.put(Objects.requireNonNull(prototype.getTemplate(), "template"), prototype);
+  }
+
+  // package-private for the benchmarks module
+  MandrillMessage createMessage(MandrillServiceMessage message) throws IOException {
+    return createMessage(message, null, Collections.emptySet());
+  }
+
+  /**
+   * @param suppressed addresses to leave out, as found once by {@code findSuppressedRecipients}
+   */
+  private MandrillMessage createMessage(MandrillServiceMessage message,
+      Future<List<MessageContent>> preparedAttachments, Set<String> suppressed)
+      throws IOException {
+    final long start = System.nanoTime();
+    final MessagePrototype prototype = getPrototype(message);
+    final MandrillMessage mandrillMessage = createDefaultMessage(prototype);
 
-    mandrillMessage.setSubject(message.getSubject());
-    mandrillMessage.setTo(createRecipients(message));
+    mandrillMessage.setSubject(message.getSubject() == null && prototype != null
+        ? prototype.getSubject() : message.getSubject());
+    mandrillMessage.setTo(createRecipients(message, suppressed));
 
     if (message.getFromEmail() != null) {
       mandrillMessage.setFromEmail(message.getFromEmail());
@@ -84,42 +528,131 @@ public class DefaultMandrillService implements MandrillService {
     }
 
     mandrillMessage.setPreserveRecipients(message.getPreserveRecipients());
-    mandrillMessage.setHeaders(message.getHeaders());
-    mandrillMessage.setGlobalMergeVars(createMergeVars(message.getReplacements()));
-    mandrillMessage.setAttachments(createAttachments(message.getAttachments()));
+    if (prototype == null) {
+      mandrillMessage.setHeaders(message.getHeaders());
+      mandrillMessage.setGlobalMergeVars(createMergeVars(message.getReplacements()));
+    } else {
+      mandrillMessage.setHeaders(createHeaders(prototype, message.getHeaders()));
+      mandrillMessage.setGlobalMergeVars(createMergeVars(prototype, message.getReplacements()));
+    }
+    mandrillMessage.setMergeVars(createRecipientMergeVars(message.getRecipientReplacements()));
+    this.metrics.recordBuildTime(message.getTemplate(), System.nanoTime() - start);
+
+    mandrillMessage.setAttachments(preparedAttachments != null
+        ? getPreparedAttachments(preparedAttachments) : encodeAttachments(message));
     return mandrillMessage;
   }
 
-  private List<MessageContent> createAttachments(List<MandrillServiceAttachment> attachments)
+  private CompletableFuture<List<MessageContent>> prepareAttachments(
+      MandrillServiceMessage message) {
+    if (this.attachmentPipeline == null || message.getAttachments() == null
+        || message.getAttachments().isEmpty()) {
+      return null;
+    }
+    return this.attachmentPipeline.tryPrepare(() -> encodeAttachments(message));
+  }
+
+  private static void cancel(Future<?> preparedAttachments) {
+    if (preparedAttachments != null) {
+      preparedAttachments.cancel(false);
+    }
+  }
+
+  private boolean isFullySuppressed(MandrillServiceMessage message) {
+    final List<String> suppressed = findSuppressedRecipients(message);
+    return !suppressed.isEmpty() && suppressed.size() == countRecipients(message);
+  }
+
+  private static List<MessageContent> getPreparedAttachments(
+      Future<List<MessageContent>> preparedAttachments) throws IOException {
+    try {
+      return preparedAttachments.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private List<MessageContent> encodeAttachments(MandrillServiceMessage message)
+      throws IOException {
+    final long start = System.nanoTime();
+    final List<MessageContent> attachments = createAttachments(message.getAttachments());
+    if (message.getAttachments() != null && !message.getAttachments().isEmpty()) {
+      this.metrics.recordAttachmentTime(message.getTemplate(), System.nanoTime() - start);
+    }
+    return attachments;
+  }
+
+  List<MessageContent> createAttachments(List<MandrillServiceAttachment> attachments)
       throws IOException {
     if (attachments == null)
       return null;
     final List<MessageContent> messageContentList = new ArrayList<>();
     for (final MandrillServiceAttachment attachment : attachments) {
-      messageContentList.add(createAttachment(attachment));
+      if (!isStreamed(attachment)) {
+        messageContentList.add(createAttachment(attachment));
+      }
     }
     return messageContentList;
   }
 
+  private List<MandrillServiceAttachment> getStreamedAttachments(
+      List<MandrillServiceAttachment> attachments) {
+    if (attachments == null)
+      return Collections.emptyList();
+    return attachments.stream().filter(this::isStreamed).collect(Collectors.toList());
+  }
+
+  private boolean isStreamed(MandrillServiceAttachment attachment) {
+    final long threshold = this.config.getStreamingAttachmentThreshold();
+    if (threshold <= 0) {
+      return false;
+    }
+    final long length = attachment.getLength();
+    // content of unknown length is streamed rather than buffered
+    return length < 0 || length >= threshold;
+  }
+
   private MessageContent createAttachment(MandrillServiceAttachment attachment) throws IOException {
     final MessageContent messageContent = new MessageContent();
     messageContent.setBinary(true);
     messageContent.setName(attachment.getName());
     messageContent.setType(attachment.getType());
-    messageContent.setContent(Base64.encodeBase64String(Files.toByteArray(attachment.getFile())));
+    messageContent.setContent(encodeAttachment(attachment));
     return messageContent;
   }
 
-  private List<Recipient> createRecipients(MandrillServiceMessage message) {
+  private String encodeAttachment(MandrillServiceAttachment attachment) throws IOException {
+    final File file = attachment.getFile();
+    if (this.attachmentCache != null && file != null) {
+      return this.attachmentCache.get(file, () -> Base64.encodeBase64String(Files.toByteArray(file)));
+    }
+    return Base64.encodeBase64String(attachment.readContent());
+  }
+
+  private static int countRecipients(MandrillServiceMessage message) {
+    if (message.getRecipients() != null && !message.getRecipients().isEmpty()) {
+      return message.getRecipients().size();
+    }
+    return message.getEmails() == null ? 0 : message.getEmails().size();
+  }
+
+  private List<Recipient> createRecipients(MandrillServiceMessage message,
+      Set<String> suppressed) {
     if (this.config.isDebug()) {
       return createDebugRecipients(message);
     }
 
-    return createActualRecipients(message);
+    return createActualRecipients(message, suppressed);
   }
 
   private List<Recipient> createDebugRecipients(MandrillServiceMessage message) {
-    if (this.config.getDebugRegex() != null) {
+    if (this.recipientRouter.hasRules()) {
       return createDebugRecipientsWithDebugRegex(message);
     } else {
       return createDebugRecipient();
@@ -144,9 +677,9 @@ public class DefaultMandrillService implements MandrillService {
     return Collections.singletonList(recipient);
   }
 
-  private List<Recipient> createDebugRecipientsFromRecipients(List<de.tschumacher.mandrillservice.domain.Recipient> recipients) {
+  List<Recipient> createDebugRecipientsFromRecipients(List<de.tschumacher.mandrillservice.domain.Recipient> recipients) {
     return recipients.stream().map(recipient -> {
-      if (emailAddressMatchesDebugRegex(recipient.getEmail())) {
+      if (this.recipientRouter.isAllowed(recipient.getEmail())) {
         Recipient mandrillRecipient = new Recipient();
 
         mandrillRecipient.setType(Recipient.Type.valueOf(recipient.getType().name()));
@@ -166,10 +699,10 @@ public class DefaultMandrillService implements MandrillService {
     }).collect(Collectors.toList());
   }
 
-  private List<Recipient> createDebugRecipientsFromEmails(List<String> emailAddresses) {
+  List<Recipient> createDebugRecipientsFromEmails(List<String> emailAddresses) {
     return emailAddresses.stream().map(emailAddress -> {
       Recipient recipient = new Recipient();
-      if (emailAddressMatchesDebugRegex(emailAddress)) {
+      if (this.recipientRouter.isAllowed(emailAddress)) {
         recipient.setEmail(emailAddress);
       } else {
         recipient.setEmail(this.config.getDebugMail());
@@ -178,30 +711,39 @@ public class DefaultMandrillService implements MandrillService {
     }).collect(Collectors.toList());
   }
 
-  private boolean emailAddressMatchesDebugRegex(String emailAddress) {
-    return emailAddress.matches(this.config.getDebugRegex());
-  }
-
-  private List<Recipient> createActualRecipients(MandrillServiceMessage message) {
+  private List<Recipient> createActualRecipients(MandrillServiceMessage message,
+      Set<String> suppressed) {
     List<de.tschumacher.mandrillservice.domain.Recipient> messageRecipients = message.getRecipients();
 
     if (messageRecipients != null && !messageRecipients.isEmpty()) {
-      return createRecipientsFromRecipients(messageRecipients);
+      return createRecipientsFromRecipients(messageRecipients, suppressed);
     } else {
-      return createRecipientsFromEmails(message.getEmails());
+      return createRecipientsFromEmails(message.getEmails(), suppressed);
     }
   }
 
-  private List<Recipient> createRecipientsFromEmails(List<String> emailAddresses) {
-    return emailAddresses.stream().map(emailAddress ->  {
+  List<Recipient> createRecipientsFromEmails(List<String> emailAddresses) {
+    return createRecipientsFromEmails(emailAddresses, Collections.emptySet());
+  }
+
+  private List<Recipient> createRecipientsFromEmails(List<String> emailAddresses,
+      Set<String> suppressed) {
+    return emailAddresses.stream().filter(emailAddress -> !suppressed.contains(emailAddress))
+        .map(emailAddress -> {
       final Recipient recipient = new Recipient();
       recipient.setEmail(emailAddress);
       return recipient;
     }).collect(Collectors.toList());
   }
 
-  private List<Recipient> createRecipientsFromRecipients(List<de.tschumacher.mandrillservice.domain.Recipient> recipients) {
-    return recipients.stream().map(recipient -> {
+  List<Recipient> createRecipientsFromRecipients(List<de.tschumacher.mandrillservice.domain.Recipient> recipients) {
+    return createRecipientsFromRecipients(recipients, Collections.emptySet());
+  }
+
+  private List<Recipient> createRecipientsFromRecipients(
+      List<de.tschumacher.mandrillservice.domain.Recipient> recipients, Set<String> suppressed) {
+    return recipients.stream().filter(recipient -> !suppressed.contains(recipient.getEmail()))
+        .map(recipient -> {
       Recipient mandrillRecipient = new Recipient();
 
       mandrillRecipient.setType(Recipient.Type.valueOf(recipient.getType().name()));
@@ -212,7 +754,40 @@ public class DefaultMandrillService implements MandrillService {
     }).collect(Collectors.toList());
   }
 
-  private List<MergeVar> createMergeVars(final Map<String, String> replacements) {
+  private boolean isSuppressed(String emailAddress) {
+    return this.suppressionCache != null && this.suppressionCache.isSuppressed(emailAddress);
+  }
+
+  /**
+   * Looks the recipients up once per send, the message is built from this list, so an entry that
+   * expires or is added meanwhile cannot change which recipients are left out.
+   *
+   * @return the recipients left out of the message, never in debug mode
+   */
+  private List<String> findSuppressedRecipients(MandrillServiceMessage message) {
+    if (this.suppressionCache == null || this.suppressionCache.size() == 0
+        || this.config.isDebug()) {
+      return Collections.emptyList();
+    }
+    final List<de.tschumacher.mandrillservice.domain.Recipient> recipients = message.getRecipients();
+    final List<String> suppressed = new ArrayList<>();
+    if (recipients != null && !recipients.isEmpty()) {
+      for (final de.tschumacher.mandrillservice.domain.Recipient recipient : recipients) {
+        if (isSuppressed(recipient.getEmail())) {
+          suppressed.add(recipient.getEmail());
+        }
+      }
+    } else if (message.getEmails() != null) {
+      for (final String email : message.getEmails()) {
+        if (isSuppressed(email)) {
+          suppressed.add(email);
+        }
+      }
+    }
+    return suppressed;
+  }
+
+  List<MergeVar> createMergeVars(final Map<String, String> replacements) {
     if (replacements == null)
       return null;
 
@@ -224,11 +799,66 @@ public class DefaultMandrillService implements MandrillService {
     return mergeVars;
   }
 
+  private List<MergeVar> createMergeVars(MessagePrototype prototype,
+      Map<String, String> replacements) {
+    if (replacements == null || replacements.isEmpty()) {
+      return prototype.getMergeVars();
+    }
+    if (prototype.getMergeVars() == null) {
+      return createMergeVars(replacements);
+    }
+    final List<MergeVar> mergeVars =
+        new ArrayList<>(prototype.getMergeVars().size() + replacements.size());
+    for (final MergeVar mergeVar : prototype.getMergeVars()) {
+      if (!replacements.containsKey(mergeVar.getName())) {
+        mergeVars.add(mergeVar);
+      }
+    }
+    mergeVars.addAll(createMergeVars(replacements));
+    return mergeVars;
+  }
+
+  private static Map<String, String> createHeaders(MessagePrototype prototype,
+      Map<String, String> headers) {
+    if (headers == null || headers.isEmpty()) {
+      return prototype.getHeaders();
+    }
+    if (prototype.getHeaders() == null) {
+      return headers;
+    }
+    final Map<String, String> merged = new LinkedHashMap<>(prototype.getHeaders());
+    merged.putAll(headers);
+    return merged;
+  }
+
+  private List<MergeVarBucket> createRecipientMergeVars(
+      final Map<String, Map<String, String>> recipientReplacements) {
+    if (recipientReplacements == null)
+      return null;
+
+    final List<MergeVarBucket> mergeVarBuckets = new ArrayList<>();
+    for (final Map.Entry<String, Map<String, String>> entry : recipientReplacements.entrySet()) {
+      if (entry.getValue() == null)
+        continue;
+      final MergeVarBucket mergeVarBucket = new MergeVarBucket();
+      mergeVarBucket.setRcpt(entry.getKey());
+      mergeVarBucket.setVars(createMergeVars(entry.getValue()).toArray(new MergeVar[0]));
+      mergeVarBuckets.add(mergeVarBucket);
+    }
+    return mergeVarBuckets;
+  }
+
+  private MessagePrototype getPrototype(MandrillServiceMessage message) {
+    return this.prototypes.isEmpty() || message.getTemplate() == null ? null
+        : this.prototypes.get(message.getTemplate());
+  }
 
-  private MandrillMessage createDefaultMessage() {
+  private MandrillMessage createDefaultMessage(MessagePrototype prototype) {
     final MandrillMessage message = new MandrillMessage();
-    message.setFromEmail(this.config.getDefaultFromMail());
-    message.setFromName(this.config.getDefaultFromName());
+    message.setFromEmail(prototype != null && prototype.getFromEmail() != null
+        ? prototype.getFromEmail() : this.config.getDefaultFromMail());
+    message.setFromName(prototype != null && prototype.getFromName() != null
+        ? prototype.getFromName() : this.config.getDefaultFromName());
     message.setInlineCss(true);
     return message;
   }
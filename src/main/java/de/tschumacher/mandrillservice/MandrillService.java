@@ -13,10 +13,42 @@
  */
 package de.tschumacher.mandrillservice;
 
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
 import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
 
-public interface MandrillService {
+public interface MandrillService extends AutoCloseable {
 
   void sendMail(MandrillServiceMessage message);
 
+  /**
+   * Sends the message like {@link #sendMail(MandrillServiceMessage)}. The default implementation
+   * reports no recipients.
+   *
+   * @return the status of every recipient as reported by Mandrill
+   * @throws de.tschumacher.mandrillservice.exception.PartialSendException if the message was split
+   *         into chunks and only some of them were accepted
+   */
+  default SendResult sendMailWithResult(MandrillServiceMessage message) {
+    sendMail(message);
+    return new SendResult(Collections.emptyList());
+  }
+
+  /**
+   * Sends the message on a background thread. The returned future fails with a
+   * {@code MandrillServiceException} if the send fails or cannot be queued. The default
+   * implementation sends on the common fork-join pool.
+   */
+  default CompletableFuture<SendResult> sendMailAsync(MandrillServiceMessage message) {
+    return CompletableFuture.supplyAsync(() -> sendMailWithResult(message));
+  }
+
+  /**
+   * Releases background threads held by the service.
+   */
+  @Override
+  default void close() {}
+
 }
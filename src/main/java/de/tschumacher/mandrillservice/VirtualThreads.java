@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates executors that run every task on a new virtual thread. This is the Java 8 version, which
+ * has none; the multi-release jar holds a Java 21 version in {@code META-INF/versions/21}.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  /**
+   * @return null, callers fall back to platform threads
+   */
+  static ExecutorService newExecutor(String namePrefix) {
+    return null;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches Base64 encoded attachment content. Entries are keyed by path, modification time and
+ * length, so a changed file is read again. The cache is bounded by the encoded size in bytes.
+ */
+public class AttachmentCache {
+
+  private final Cache<Key, String> cache;
+
+  public AttachmentCache(long maxBytes) {
+    // one segment, as every segment would otherwise be capped at its share of maxBytes
+    this.cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(maxBytes)
+        .weigher((Key key, String content) -> content.length())
+        .recordStats()
+        .build();
+  }
+
+  public String get(File file, Callable<String> encoder) throws IOException {
+    try {
+      return this.cache.get(new Key(file), encoder);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  public CacheStats stats() {
+    return this.cache.stats();
+  }
+
+  private static final class Key {
+    private final String path;
+    private final long lastModified;
+    private final long length;
+
+    Key(File file) {
+      this.path = file.getAbsolutePath();
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      final Key other = (Key) o;
+      return this.lastModified == other.lastModified && this.length == other.length
+          && this.path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.path, this.lastModified, this.length);
+    }
+  }
+}
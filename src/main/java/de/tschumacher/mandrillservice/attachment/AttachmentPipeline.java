@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.attachment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads and encodes the attachments of queued messages on a dedicated I/O pool, so they are ready
+ * when a dispatch thread picks the message up and disk I/O overlaps with the API calls of earlier
+ * messages. At most {@code prefetch} messages are in preparation or held prepared at a time, which
+ * caps the memory taken by encoded content. Beyond that, a message is prepared by its dispatch
+ * thread as without the pipeline.
+ */
+public class AttachmentPipeline implements AutoCloseable {
+
+  private final int prefetch;
+  private final Semaphore permits;
+  private final ThreadPoolExecutor executor;
+
+  public AttachmentPipeline(int threads, int prefetch) {
+    this.prefetch = prefetch;
+    this.permits = new Semaphore(prefetch);
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("mandrill-attachment-io-%d").setDaemon(true)
+            .build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Starts preparing a message, unless {@code prefetch} messages are already prepared. Every
+   * returned future must be followed by a call to {@link #release()} once its value is no longer
+   * needed. A future cancelled before the task started skips the task.
+   *
+   * @return the future result of the task, null if the prefetch depth is reached
+   */
+  public <T> CompletableFuture<T> tryPrepare(Callable<T> task) {
+    if (!this.permits.tryAcquire()) {
+      return null;
+    }
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      this.executor.execute(() -> {
+        if (future.isDone()) {
+          return;
+        }
+        try {
+          future.complete(task.call());
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.permits.release();
+      return null;
+    }
+    return future;
+  }
+
+  public void release() {
+    this.permits.release();
+  }
+
+  /**
+   * @return messages in preparation or prepared and not yet released
+   */
+  public int getPrepared() {
+    return this.prefetch - this.permits.availablePermits();
+  }
+
+  @Override
+  public void close() {
+    this.executor.shutdown();
+  }
+}
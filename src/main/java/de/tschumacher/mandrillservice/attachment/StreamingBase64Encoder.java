@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Base64 encodes a file or stream chunk by chunk. Chunks are a multiple of three bytes, so the
+ * encoded chunks concatenate to the encoding of the whole content and memory use does not depend on
+ * the content size.
+ */
+public final class StreamingBase64Encoder {
+
+  static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+  private StreamingBase64Encoder() {}
+
+  public static void encode(File file, OutputStream out) throws IOException {
+    final ByteBuffer input = ByteBuffer.allocate(CHUNK_SIZE);
+    final byte[] output = new byte[CHUNK_SIZE / 3 * 4];
+    final Base64.Encoder encoder = Base64.getEncoder();
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (true) {
+        final int read = channel.read(input);
+        if (!input.hasRemaining()) {
+          out.write(output, 0, encoder.encode(input.array(), output));
+          input.clear();
+        }
+        if (read < 0) {
+          break;
+        }
+      }
+    }
+
+    if (input.position() > 0) {
+      final byte[] rest = Arrays.copyOf(input.array(), input.position());
+      out.write(output, 0, encoder.encode(rest, output));
+    }
+  }
+
+  public static void encode(InputStream in, OutputStream out) throws IOException {
+    final byte[] input = new byte[CHUNK_SIZE];
+    final byte[] output = new byte[CHUNK_SIZE / 3 * 4];
+    final Base64.Encoder encoder = Base64.getEncoder();
+
+    int position = 0;
+    int read;
+    while ((read = in.read(input, position, CHUNK_SIZE - position)) >= 0) {
+      position += read;
+      if (position == CHUNK_SIZE) {
+        out.write(output, 0, encoder.encode(input, output));
+        position = 0;
+      }
+    }
+
+    if (position > 0) {
+      out.write(output, 0, encoder.encode(Arrays.copyOf(input, position), output));
+    }
+  }
+
+  public static long encodedLength(long length) {
+    return (length + 2) / 3 * 4;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+
+import de.tschumacher.mandrillservice.resilience.MandrillCall;
+
+/**
+ * Runs the calls of one message with at most {@code parallelism} calls in flight. The calling
+ * thread takes part in the work, so a message makes progress even while all pool threads are busy
+ * with other messages.
+ */
+public class ChunkExecutor implements AutoCloseable {
+
+  private final int parallelism;
+  private final ThreadPoolExecutor executor;
+
+  public ChunkExecutor(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    this.executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("mandrill-chunk-%d").setDaemon(true).build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Runs every call, also after one of them failed.
+   *
+   * @return the outcomes in the order of the calls
+   */
+  public <T> List<Outcome<T>> invokeAllSettled(List<MandrillCall<T>> calls) throws IOException {
+    final int count = calls.size();
+    final AtomicReferenceArray<Outcome<T>> outcomes = new AtomicReferenceArray<>(count);
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(count);
+
+    final Runnable worker = () -> {
+      for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+        try {
+          outcomes.set(index, new Outcome<>(calls.get(index).call(), null));
+        } catch (Exception e) {
+          outcomes.set(index, new Outcome<>(null, e));
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    for (int i = 1; i < Math.min(this.parallelism, count); i++) {
+      this.executor.execute(worker);
+    }
+    worker.run();
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for chunks", e);
+    }
+
+    final List<Outcome<T>> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      list.add(outcomes.get(i));
+    }
+    return list;
+  }
+
+  /**
+   * Throws the failure of a {@link MandrillCall} with its own type.
+   */
+  public static void rethrow(Exception failure) throws MandrillApiError, IOException {
+    if (failure instanceof MandrillApiError) {
+      throw (MandrillApiError) failure;
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    throw new IOException(failure);
+  }
+
+  @Override
+  public void close() {
+    this.executor.shutdown();
+  }
+
+  /**
+   * Result or failure of one call.
+   */
+  public static final class Outcome<T> {
+    private final T value;
+    private final Exception failure;
+
+    Outcome(T value, Exception failure) {
+      this.value = value;
+      this.failure = failure;
+    }
+
+    public T getValue() {
+      return this.value;
+    }
+
+    public Exception getFailure() {
+      return this.failure;
+    }
+  }
+}
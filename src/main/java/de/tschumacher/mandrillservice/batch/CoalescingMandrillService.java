@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.Recipient;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Collects messages that share template, subject, sender, headers and lane for a short window and
+ * sends them as one request with {@code preserveRecipients=false}. The replacements of each message
+ * move into per-recipient merge vars unless all messages of the batch share them. Messages with
+ * attachments, an idempotency key or {@code preserveRecipients=true} are passed through unchanged.
+ */
+public class CoalescingMandrillService implements MandrillService {
+
+  private final MandrillService delegate;
+  private final long windowMillis;
+  private final int maxRecipients;
+  private final ScheduledExecutorService scheduler;
+  private final Map<BatchKey, Batch> batches = new HashMap<>();
+
+  public CoalescingMandrillService(MandrillService delegate, MandrillServiceConfig config) {
+    this.delegate = delegate;
+    this.windowMillis = config.getCoalescingWindowMillis();
+    this.maxRecipients = config.getCoalescingMaxRecipients();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("mandrill-coalescer-%d").setDaemon(true).build());
+  }
+
+  @Override
+  public void sendMail(MandrillServiceMessage message) {
+    sendMailWithResult(message);
+  }
+
+  @Override
+  public SendResult sendMailWithResult(MandrillServiceMessage message) {
+    try {
+      return sendMailAsync(message).join();
+    } catch (CompletionException e) {
+      throw MandrillServiceException.of(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<SendResult> sendMailAsync(MandrillServiceMessage message) {
+    if (!isCoalescible(message)) {
+      return this.delegate.sendMailAsync(message);
+    }
+
+    final BatchKey key = new BatchKey(message);
+    final List<Batch> ready = new ArrayList<>();
+    final CompletableFuture<SendResult> future;
+    synchronized (this.batches) {
+      Batch batch = this.batches.get(key);
+      if (batch != null && batch.containsAnyRecipient(message)) {
+        this.batches.remove(key);
+        ready.add(batch);
+        batch = null;
+      }
+      if (batch == null) {
+        final Batch newBatch = new Batch();
+        this.batches.put(key, newBatch);
+        this.scheduler.schedule(() -> flush(key, newBatch), this.windowMillis, TimeUnit.MILLISECONDS);
+        batch = newBatch;
+      }
+      future = batch.add(message);
+      if (batch.recipientCount() >= this.maxRecipients) {
+        this.batches.remove(key);
+        ready.add(batch);
+      }
+    }
+    ready.forEach(this::send);
+    return future;
+  }
+
+  @Override
+  public void close() {
+    final List<Batch> pending;
+    synchronized (this.batches) {
+      pending = new ArrayList<>(this.batches.values());
+      this.batches.clear();
+    }
+    pending.forEach(this::send);
+    this.scheduler.shutdown();
+    this.delegate.close();
+  }
+
+  private boolean isCoalescible(MandrillServiceMessage message) {
+    return this.windowMillis > 0
+        && (message.getAttachments() == null || message.getAttachments().isEmpty())
+        && message.getIdempotencyKey() == null
+        && !Boolean.TRUE.equals(message.getPreserveRecipients());
+  }
+
+  private void flush(BatchKey key, Batch batch) {
+    synchronized (this.batches) {
+      if (this.batches.get(key) != batch) {
+        return;
+      }
+      this.batches.remove(key);
+    }
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    final CompletableFuture<SendResult> sent;
+    try {
+      sent = this.delegate.sendMailAsync(batch.toMessage());
+    } catch (RuntimeException e) {
+      batch.complete(null, e);
+      return;
+    }
+    sent.whenComplete(batch::complete);
+  }
+
+  private static List<Recipient> getRecipients(MandrillServiceMessage message) {
+    if (message.getRecipients() != null && !message.getRecipients().isEmpty()) {
+      return message.getRecipients();
+    }
+    final List<Recipient> recipients = new ArrayList<>();
+    if (message.getEmails() != null) {
+      for (final String email : message.getEmails()) {
+        final Recipient recipient = new Recipient();
+        recipient.setEmail(email);
+        recipients.add(recipient);
+      }
+    }
+    return recipients;
+  }
+
+  private static final class Batch {
+    private final List<MandrillServiceMessage> messages = new ArrayList<>();
+    private final List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+    private final Set<String> emails = new HashSet<>();
+
+    CompletableFuture<SendResult> add(MandrillServiceMessage message) {
+      final CompletableFuture<SendResult> future = new CompletableFuture<>();
+      this.messages.add(message);
+      this.futures.add(future);
+      for (final Recipient recipient : getRecipients(message)) {
+        this.emails.add(recipient.getEmail());
+      }
+      return future;
+    }
+
+    boolean containsAnyRecipient(MandrillServiceMessage message) {
+      return getRecipients(message).stream().anyMatch(r -> this.emails.contains(r.getEmail()));
+    }
+
+    int recipientCount() {
+      return this.emails.size();
+    }
+
+    MandrillServiceMessage toMessage() {
+      final MandrillServiceMessage first = this.messages.get(0);
+      if (this.messages.size() == 1) {
+        return first;
+      }
+
+      final boolean sharedReplacements = this.messages.stream()
+          .allMatch(m -> Objects.equals(m.getReplacements(), first.getReplacements()));
+      final List<Recipient> recipients = new ArrayList<>();
+      final Map<String, Map<String, String>> recipientReplacements = new LinkedHashMap<>();
+      for (final MandrillServiceMessage message : this.messages) {
+        for (final Recipient recipient : getRecipients(message)) {
+          recipients.add(recipient);
+          final Map<String, String> replacements = new LinkedHashMap<>();
+          if (!sharedReplacements && message.getReplacements() != null) {
+            replacements.putAll(message.getReplacements());
+          }
+          if (message.getRecipientReplacements() != null
+              && message.getRecipientReplacements().get(recipient.getEmail()) != null) {
+            replacements.putAll(message.getRecipientReplacements().get(recipient.getEmail()));
+          }
+          if (!replacements.isEmpty()) {
+            recipientReplacements.put(recipient.getEmail(), replacements);
+          }
+        }
+      }
+
+      return MandrillServiceMessage.newBuilder()
+          .withTemplate(first.getTemplate())
+          .withSubject(first.getSubject())
+          .withFromEmail(first.getFromEmail())
+          .withFromName(first.getFromName())
+          .withHeaders(first.getHeaders())
+          .withRecipients(recipients)
+          .withPreserveRecipients(false)
+          .withReplacements(sharedReplacements ? first.getReplacements() : null)
+          .withRecipientReplacements(recipientReplacements.isEmpty() ? null : recipientReplacements)
+          .withLane(first.getLane())
+          .build();
+    }
+
+    void complete(SendResult result, Throwable throwable) {
+      for (int i = 0; i < this.futures.size(); i++) {
+        final CompletableFuture<SendResult> future = this.futures.get(i);
+        if (throwable != null) {
+          future.completeExceptionally(MandrillServiceException.of(throwable));
+        } else if (result == null || this.messages.size() == 1) {
+          future.complete(result);
+        } else {
+          future.complete(result.forRecipients(getRecipients(this.messages.get(i)).stream()
+              .map(Recipient::getEmail).collect(Collectors.toList())));
+        }
+      }
+    }
+  }
+
+  private static final class BatchKey {
+    private final String template;
+    private final String subject;
+    private final String fromEmail;
+    private final String fromName;
+    private final Map<String, String> headers;
+    private final MandrillServiceMessage.Lane lane;
+
+    BatchKey(MandrillServiceMessage message) {
+      this.template = message.getTemplate();
+      this.subject = message.getSubject();
+      this.fromEmail = message.getFromEmail();
+      this.fromName = message.getFromName();
+      this.headers = message.getHeaders();
+      this.lane = message.getLane();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof BatchKey))
+        return false;
+      final BatchKey other = (BatchKey) o;
+      return Objects.equals(this.template, other.template)
+          && Objects.equals(this.subject, other.subject)
+          && Objects.equals(this.fromEmail, other.fromEmail)
+          && Objects.equals(this.fromName, other.fromName)
+          && Objects.equals(this.headers, other.headers)
+          && this.lane == other.lane;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.template, this.subject, this.fromEmail, this.fromName, this.headers,
+          this.lane);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVarBucket;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+
+/**
+ * Splits a message with many recipients into messages of at most {@code chunkSize} recipients. The
+ * chunks share everything but recipients and per-recipient merge vars with the original message,
+ * so attachments are encoded only once.
+ */
+public final class RecipientChunks {
+
+  private RecipientChunks() {}
+
+  /**
+   * @return the message itself if it does not need to be split
+   */
+  public static List<MandrillMessage> split(MandrillMessage message, int chunkSize) {
+    final List<Recipient> recipients = message.getTo();
+    if (chunkSize <= 0 || recipients == null || recipients.size() <= chunkSize
+        || Boolean.TRUE.equals(message.getPreserveRecipients())) {
+      return Collections.singletonList(message);
+    }
+
+    final List<MandrillMessage> chunks = new ArrayList<>((recipients.size() - 1) / chunkSize + 1);
+    for (int start = 0; start < recipients.size(); start += chunkSize) {
+      final List<Recipient> chunkRecipients =
+          recipients.subList(start, Math.min(recipients.size(), start + chunkSize));
+      final MandrillMessage chunk = copyOf(message);
+      chunk.setTo(chunkRecipients);
+      chunk.setMergeVars(mergeVarsOf(message.getMergeVars(), chunkRecipients));
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static List<MergeVarBucket> mergeVarsOf(List<MergeVarBucket> mergeVars,
+      List<Recipient> recipients) {
+    if (mergeVars == null || mergeVars.isEmpty()) {
+      return mergeVars;
+    }
+    final Set<String> emails = new HashSet<>(recipients.size() * 2);
+    for (final Recipient recipient : recipients) {
+      emails.add(recipient.getEmail());
+    }
+    final List<MergeVarBucket> chunkMergeVars = new ArrayList<>();
+    for (final MergeVarBucket bucket : mergeVars) {
+      if (emails.contains(bucket.getRcpt())) {
+        chunkMergeVars.add(bucket);
+      }
+    }
+    return chunkMergeVars;
+  }
+
+  private static MandrillMessage copyOf(MandrillMessage message) {
+    final MandrillMessage copy = new MandrillMessage();
+    copy.setSubject(message.getSubject());
+    copy.setHtml(message.getHtml());
+    copy.setText(message.getText());
+    copy.setFromEmail(message.getFromEmail());
+    copy.setFromName(message.getFromName());
+    copy.setTo(message.getTo());
+    copy.setHeaders(message.getHeaders());
+    copy.setAttachments(message.getAttachments());
+    copy.setImages(message.getImages());
+    copy.setImportant(message.getImportant());
+    copy.setTrackOpens(message.getTrackOpens());
+    copy.setTrackClicks(message.getTrackClicks());
+    copy.setAutoText(message.getAutoText());
+    copy.setAutoHtml(message.getAutoHtml());
+    copy.setInlineCss(message.getInlineCss());
+    copy.setUrlStripQs(message.getUrlStripQs());
+    copy.setPreserveRecipients(message.getPreserveRecipients());
+    copy.setViewContentLink(message.getViewContentLink());
+    copy.setBcc(message.getBcc());
+    copy.setTrackingDomain(message.getTrackingDomain());
+    copy.setSigningDomain(message.getSigningDomain());
+    copy.setReturnPathDomain(message.getReturnPathDomain());
+    copy.setMerge(message.getMerge());
+    copy.setMergeLanguage(message.getMergeLanguage());
+    copy.setGlobalMergeVars(message.getGlobalMergeVars());
+    copy.setMergeVars(message.getMergeVars());
+    copy.setTags(message.getTags());
+    copy.setSubaccount(message.getSubaccount());
+    copy.setGoogleAnalyticsDomains(message.getGoogleAnalyticsDomains());
+    copy.setGoogleAnalyticsCampaign(message.getGoogleAnalyticsCampaign());
+    copy.setMetadata(message.getMetadata());
+    copy.setRecipientMetadata(message.getRecipientMetadata());
+    return copy;
+  }
+}
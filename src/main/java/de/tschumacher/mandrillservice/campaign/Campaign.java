@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+
+/**
+ * A template message sent to every recipient of a file. The recipients replace those of the
+ * message, everything else (template, subject, sender, headers, global replacements, lane) is taken
+ * from it.
+ */
+public class Campaign {
+
+  /**
+   * <p>Format of the recipient file.
+   */
+  public enum Format {
+    /**
+     * comma separated with a header row, quoted as in RFC 4180; the {@code email} and {@code name}
+     * columns make the recipient, all other columns its replacements
+     */
+    CSV,
+    /**
+     * one JSON object per line; the {@code email} and {@code name} members make the recipient, all
+     * other members with a primitive value its replacements
+     */
+    NDJSON
+  }
+
+  private final String id;
+  private final MandrillServiceMessage message;
+  private final Path recipients;
+  private final Format format;
+  private final File checkpointFile;
+
+  public String getId() {
+    return this.id;
+  }
+
+  public MandrillServiceMessage getMessage() {
+    return this.message;
+  }
+
+  public Path getRecipients() {
+    return this.recipients;
+  }
+
+  public Format getFormat() {
+    return this.format;
+  }
+
+  public File getCheckpointFile() {
+    return this.checkpointFile;
+  }
+
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  private Campaign(Builder builder) {
+    this.id = builder.id;
+    this.message = builder.message;
+    this.recipients = builder.recipients;
+    this.format = builder.format;
+    this.checkpointFile = builder.checkpointFile;
+  }
+
+  public static class Builder {
+
+    private String id;
+    private MandrillServiceMessage message;
+    private Path recipients;
+    private Format format = Format.CSV;
+    private File checkpointFile;
+
+    /**
+     * Identifies the campaign in its checkpoint and in the idempotency keys of its batches.
+     */
+    public Builder withId(String id) {
+      this.id = id;
+      return this;
+    }
+
+    public Builder withMessage(MandrillServiceMessage message) {
+      this.message = message;
+      return this;
+    }
+
+    public Builder withRecipients(Path recipients) {
+      this.recipients = recipients;
+      return this;
+    }
+
+    public Builder withFormat(Format format) {
+      this.format = format;
+      return this;
+    }
+
+    /**
+     * Records the rows sent so far, so a campaign that is sent again resumes after them. Without
+     * a checkpoint file every send starts at the first row.
+     */
+    public Builder withCheckpointFile(File checkpointFile) {
+      this.checkpointFile = checkpointFile;
+      return this;
+    }
+
+    public Campaign build() {
+      return new Campaign(this);
+    }
+  }
+}
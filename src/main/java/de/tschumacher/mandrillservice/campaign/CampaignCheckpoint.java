@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The number of rows of a campaign that were sent, kept in a small text file that is replaced
+ * atomically after every batch.
+ */
+class CampaignCheckpoint {
+
+  private final String campaignId;
+  private final Path path;
+  private long rows;
+
+  private CampaignCheckpoint(String campaignId, Path path, long rows) {
+    this.campaignId = campaignId;
+    this.path = path;
+    this.rows = rows;
+  }
+
+  static CampaignCheckpoint load(String campaignId, File file) throws IOException {
+    if (file == null || !file.exists()) {
+      return new CampaignCheckpoint(campaignId, file == null ? null : file.toPath(), 0);
+    }
+    final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    if (lines.size() < 2 || !lines.get(0).equals(String.valueOf(campaignId))) {
+      throw new IOException("checkpoint " + file + " does not belong to campaign " + campaignId);
+    }
+    try {
+      return new CampaignCheckpoint(campaignId, file.toPath(), Long.parseLong(lines.get(1)));
+    } catch (NumberFormatException e) {
+      throw new IOException("invalid checkpoint " + file, e);
+    }
+  }
+
+  /**
+   * @return rows sent before
+   */
+  long getRows() {
+    return this.rows;
+  }
+
+  void save(long rows) throws IOException {
+    this.rows = rows;
+    if (this.path == null) {
+      return;
+    }
+    final Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+    Files.write(temp, Arrays.asList(String.valueOf(this.campaignId), String.valueOf(rows)),
+        StandardCharsets.UTF_8);
+    Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+/**
+ * Counts of a campaign send. Rows are data rows of the recipient file, in file order.
+ */
+public class CampaignResult {
+
+  private final long skippedRows;
+  private final long invalidRows;
+  private final long batches;
+  private final long accepted;
+  private final long notAccepted;
+
+  CampaignResult(long skippedRows, long invalidRows, long batches, long accepted,
+      long notAccepted) {
+    this.skippedRows = skippedRows;
+    this.invalidRows = invalidRows;
+    this.batches = batches;
+    this.accepted = accepted;
+    this.notAccepted = notAccepted;
+  }
+
+  /**
+   * @return rows skipped because the checkpoint recorded them as sent
+   */
+  public long getSkippedRows() {
+    return this.skippedRows;
+  }
+
+  /**
+   * @return rows without an email address
+   */
+  public long getInvalidRows() {
+    return this.invalidRows;
+  }
+
+  /**
+   * @return messages sent by this run
+   */
+  public long getBatches() {
+    return this.batches;
+  }
+
+  /**
+   * @return recipients Mandrill sent, queued or scheduled
+   */
+  public long getAccepted() {
+    return this.accepted;
+  }
+
+  /**
+   * @return recipients Mandrill rejected or that were suppressed
+   */
+  public long getNotAccepted() {
+    return this.notAccepted;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.Recipient;
+import de.tschumacher.mandrillservice.domain.RecipientStatus;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Sends a {@link Campaign} while reading its recipient file, {@code campaignBatchSize} rows per
+ * message, so memory depends on the batch size and not on the file size. The service can split each
+ * message further into API calls of {@code chunkSize} recipients.
+ *
+ * <p>After every sent batch the number of rows sent is checkpointed. If a send fails or the
+ * process stops, sending the campaign again skips the checkpointed rows and continues with the
+ * batch that was not confirmed. Each batch carries an idempotency key made of the campaign id and
+ * its first row, so with a persistent idempotency file a batch that was sent but not checkpointed
+ * is not sent twice. A batch whose chunks were only partly accepted fails the send without a
+ * checkpoint; sending the campaign again sends only its failed chunks.
+ */
+public class CampaignSender {
+
+  private final MandrillService service;
+  private final int batchSize;
+
+  public CampaignSender(MandrillService service, MandrillServiceConfig config) {
+    this.service = service;
+    this.batchSize = Math.max(1, config.getCampaignBatchSize());
+  }
+
+  public CampaignResult send(Campaign campaign) {
+    try (RecipientSource source =
+        RecipientSource.open(campaign.getRecipients(), campaign.getFormat())) {
+      return send(campaign, source);
+    } catch (IOException e) {
+      throw new MandrillServiceException(e);
+    }
+  }
+
+  private CampaignResult send(Campaign campaign, RecipientSource source) throws IOException {
+    final CampaignCheckpoint checkpoint =
+        CampaignCheckpoint.load(campaign.getId(), campaign.getCheckpointFile());
+    long row = 0;
+    while (row < checkpoint.getRows() && source.next() != null) {
+      row++;
+    }
+    final long skippedRows = row;
+
+    long invalidRows = 0;
+    long batches = 0;
+    long accepted = 0;
+    long notAccepted = 0;
+    long batchStart = row;
+    final List<Recipient> recipients = new ArrayList<>(this.batchSize);
+    final Map<String, Map<String, String>> replacements = new LinkedHashMap<>();
+    RecipientSource.Row next;
+    do {
+      next = source.next();
+      if (next != null) {
+        row++;
+        if (next.getEmail() == null) {
+          invalidRows++;
+        } else {
+          recipients.add(createRecipient(next));
+          if (!next.getReplacements().isEmpty()) {
+            replacements.put(next.getEmail(), next.getReplacements());
+          }
+        }
+      }
+
+      if (recipients.size() >= this.batchSize || (next == null && !recipients.isEmpty())) {
+        final SendResult result = this.service.sendMailWithResult(
+            createMessage(campaign, batchStart, recipients, replacements));
+        batches++;
+        if (result != null) {
+          for (final RecipientStatus status : result.getRecipients()) {
+            if (status.isAccepted()) {
+              accepted++;
+            } else {
+              notAccepted++;
+            }
+          }
+        }
+        recipients.clear();
+        replacements.clear();
+        checkpoint.save(row);
+        batchStart = row;
+      }
+    } while (next != null);
+    if (row > checkpoint.getRows()) {
+      // trailing rows without email address
+      checkpoint.save(row);
+    }
+    return new CampaignResult(skippedRows, invalidRows, batches, accepted, notAccepted);
+  }
+
+  private static Recipient createRecipient(RecipientSource.Row row) {
+    final Recipient recipient = new Recipient();
+    recipient.setEmail(row.getEmail());
+    recipient.setName(row.getName());
+    return recipient;
+  }
+
+  private static MandrillServiceMessage createMessage(Campaign campaign, long firstRow,
+      List<Recipient> recipients, Map<String, Map<String, String>> replacements) {
+    final MandrillServiceMessage message = campaign.getMessage();
+    return MandrillServiceMessage.newBuilder()
+        .withTemplate(message.getTemplate())
+        .withSubject(message.getSubject())
+        .withFromEmail(message.getFromEmail())
+        .withFromName(message.getFromName())
+        .withHeaders(message.getHeaders())
+        .withReplacements(message.getReplacements())
+        .withAttachments(message.getAttachments())
+        .withLane(message.getLane())
+        .withRecipients(new ArrayList<>(recipients))
+        .withPreserveRecipients(false)
+        .withRecipientReplacements(
+            replacements.isEmpty() ? null : new LinkedHashMap<>(replacements))
+        .withIdempotencyKey(campaign.getId() == null ? null : campaign.getId() + ":" + firstRow)
+        .build();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads CSV with a header row. Fields may be quoted, a quoted field may contain commas, line breaks
+ * and doubled quotes.
+ */
+class CsvRecipientSource implements RecipientSource {
+
+  private final BufferedReader reader;
+  private final List<String> header;
+  private final int emailColumn;
+  private final int nameColumn;
+  private final StringBuilder field = new StringBuilder();
+
+  CsvRecipientSource(BufferedReader reader) throws IOException {
+    this.reader = reader;
+    final List<String> header = readRecord();
+    if (header == null) {
+      throw new IOException("recipient file is empty");
+    }
+    this.header = new ArrayList<>(header.size());
+    for (final String column : header) {
+      this.header.add(column.trim());
+    }
+    this.emailColumn = indexOf("email");
+    this.nameColumn = indexOf("name");
+    if (this.emailColumn < 0) {
+      throw new IOException("recipient file has no email column");
+    }
+  }
+
+  @Override
+  public Row next() throws IOException {
+    List<String> record;
+    do {
+      record = readRecord();
+    } while (record != null && record.size() == 1 && record.get(0).isEmpty());
+    if (record == null) {
+      return null;
+    }
+
+    final Map<String, String> replacements = new LinkedHashMap<>();
+    for (int i = 0; i < record.size() && i < this.header.size(); i++) {
+      if (i != this.emailColumn && i != this.nameColumn) {
+        replacements.put(this.header.get(i), record.get(i));
+      }
+    }
+    return new Row(get(record, this.emailColumn), get(record, this.nameColumn), replacements);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.reader.close();
+  }
+
+  private int indexOf(String column) {
+    for (int i = 0; i < this.header.size(); i++) {
+      if (this.header.get(i).toLowerCase(Locale.ROOT).equals(column)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String get(List<String> record, int column) {
+    if (column < 0 || column >= record.size()) {
+      return null;
+    }
+    final String value = record.get(column).trim();
+    return value.isEmpty() ? null : value;
+  }
+
+  /**
+   * @return the fields of the next record, null at the end of the file
+   */
+  private List<String> readRecord() throws IOException {
+    final List<String> fields = new ArrayList<>();
+    this.field.setLength(0);
+    boolean quoted = false;
+    boolean read = false;
+    int c;
+    while ((c = this.reader.read()) != -1) {
+      read = true;
+      if (quoted) {
+        if (c != '"') {
+          this.field.append((char) c);
+          continue;
+        }
+        this.reader.mark(1);
+        if (this.reader.read() == '"') {
+          this.field.append('"');
+        } else {
+          this.reader.reset();
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(this.field.toString());
+        this.field.setLength(0);
+      } else if (c == '\n') {
+        break;
+      } else if (c != '\r') {
+        this.field.append((char) c);
+      }
+    }
+    if (!read) {
+      return null;
+    }
+    fields.add(this.field.toString());
+    return fields;
+  }
+}
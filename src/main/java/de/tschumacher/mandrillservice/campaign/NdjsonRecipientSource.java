@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Reads one JSON object per line. Blank lines are skipped.
+ */
+class NdjsonRecipientSource implements RecipientSource {
+
+  private final BufferedReader reader;
+  private final JsonParser parser = new JsonParser();
+
+  NdjsonRecipientSource(BufferedReader reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public Row next() throws IOException {
+    String line;
+    do {
+      line = this.reader.readLine();
+    } while (line != null && line.trim().isEmpty());
+    if (line == null) {
+      return null;
+    }
+
+    final JsonObject json;
+    try {
+      json = this.parser.parse(line).getAsJsonObject();
+    } catch (JsonParseException | IllegalStateException e) {
+      throw new IOException("invalid recipient line: " + line, e);
+    }
+    final Map<String, String> replacements = new LinkedHashMap<>();
+    for (final Map.Entry<String, JsonElement> member : json.entrySet()) {
+      if (!member.getKey().equals("email") && !member.getKey().equals("name")
+          && member.getValue().isJsonPrimitive()) {
+        replacements.put(member.getKey(), member.getValue().getAsString());
+      }
+    }
+    return new Row(getString(json, "email"), getString(json, "name"), replacements);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.reader.close();
+  }
+
+  private static String getString(JsonObject json, String name) {
+    final JsonElement element = json.get(name);
+    return element == null || !element.isJsonPrimitive() ? null : element.getAsString();
+  }
+}
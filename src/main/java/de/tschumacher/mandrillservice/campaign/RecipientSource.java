@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Reads the rows of a recipient file one at a time.
+ */
+interface RecipientSource extends AutoCloseable {
+
+  /**
+   * @return the next row, null at the end of the file
+   */
+  Row next() throws IOException;
+
+  @Override
+  void close() throws IOException;
+
+  static RecipientSource open(Path path, Campaign.Format format) throws IOException {
+    final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    try {
+      return format == Campaign.Format.NDJSON ? new NdjsonRecipientSource(reader)
+          : new CsvRecipientSource(reader);
+    } catch (IOException | RuntimeException e) {
+      reader.close();
+      throw e;
+    }
+  }
+
+  final class Row {
+    private final String email;
+    private final String name;
+    private final Map<String, String> replacements;
+
+    Row(String email, String name, Map<String, String> replacements) {
+      this.email = email;
+      this.name = name;
+      this.replacements = replacements;
+    }
+
+    String getEmail() {
+      return this.email;
+    }
+
+    String getName() {
+      return this.name;
+    }
+
+    Map<String, String> getReplacements() {
+      return this.replacements;
+    }
+  }
+}
@@ -13,15 +13,113 @@
  */
 package de.tschumacher.mandrillservice.configuration;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.tschumacher.mandrillservice.metrics.MandrillServiceMetrics;
+import de.tschumacher.mandrillservice.suppression.SuppressionListener;
 
 public class MandrillServiceConfig {
 
+  /**
+   * <p>What to do with an async send when the dispatch queue is full.
+   */
+  public enum RejectionPolicy {
+    /** fail the returned future with a {@code MandrillServiceException} */
+    ABORT,
+    /** send synchronously on the calling thread, fail as with {@link #ABORT} once closed */
+    CALLER_RUNS
+  }
+
+  /**
+   * <p>How a send waits for the client-side rate limit.
+   */
+  public enum RateLimitMode {
+    /** wait until the send is allowed */
+    BLOCK,
+    /** wait up to the rate limit timeout, then fail */
+    TIMED,
+    /** fail immediately if the send is not allowed now */
+    FAIL_FAST
+  }
+
+  /**
+   * <p>Which threads run async sends.
+   */
+  public enum ThreadMode {
+    /** a pool of {@code asyncThreads} platform threads with a queue of {@code asyncQueueSize} */
+    PLATFORM,
+    /**
+     * a new virtual thread per send on Java 21 and later, without pool or queue: sends are never
+     * rejected, so {@code asyncQueueSize} and {@code asyncRejectionPolicy} do not apply and nothing
+     * bounds the sends waiting for the API. Platform threads as with {@link #PLATFORM} on older
+     * versions
+     */
+    VIRTUAL
+  }
+
   private final String mandrillKey;
   private final boolean isDebug;
   private final String debugMail;
   private final String debugRegex;
   private final String defaultFromMail;
   private final String defaultFromName;
+  private final int asyncThreads;
+  private final int asyncQueueSize;
+  private final RejectionPolicy asyncRejectionPolicy;
+  private final long attachmentCacheMaxBytes;
+  private final long streamingAttachmentThreshold;
+  private final int maxConnections;
+  private final int maxConnectionsPerRoute;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final long idleConnectionTimeoutMillis;
+  private final long coalescingWindowMillis;
+  private final int coalescingMaxRecipients;
+  private final int retryMaxAttempts;
+  private final long retryInitialBackoffMillis;
+  private final long retryMaxBackoffMillis;
+  private final double retryJitter;
+  private final int circuitBreakerFailureThreshold;
+  private final long circuitBreakerOpenMillis;
+  private final double messagesPerSecond;
+  private final long recipientsPerHour;
+  private final RateLimitMode rateLimitMode;
+  private final long rateLimitTimeoutMillis;
+  private final File outboxDirectory;
+  private final long outboxSegmentBytes;
+  private final Set<String> debugAllowedAddresses;
+  private final Set<String> debugAllowedDomains;
+  private final MandrillServiceMetrics metrics;
+  private final long idempotencyTtlMillis;
+  private final long idempotencyMaxKeys;
+  private final File idempotencyFile;
+  private final int chunkSize;
+  private final int chunkParallelism;
+  private final int transactionalLaneWeight;
+  private final int bulkLaneWeight;
+  private final int transactionalLaneConcurrency;
+  private final int bulkLaneConcurrency;
+  private final int laneQueueSize;
+  private final int laneConcurrency;
+  private final int concurrencyLimitInitial;
+  private final int concurrencyLimitMin;
+  private final int concurrencyLimitMax;
+  private final double concurrencyLimitLatencyTolerance;
+  private final double concurrencyLimitBackoffRatio;
+  private final long concurrencyLimitTimeoutMillis;
+  private final long suppressionTtlMillis;
+  private final long suppressionMaxEntries;
+  private final File suppressionFile;
+  private final SuppressionListener suppressionListener;
+  private final int attachmentPrefetch;
+  private final int attachmentIoThreads;
+  private final int reactiveMaxInFlight;
+  private final ThreadMode asyncThreadMode;
+  private final int campaignBatchSize;
+  private final String apiRootUrl;
 
   public String getMandrillKey() {
     return mandrillKey;
@@ -47,6 +145,222 @@ public class MandrillServiceConfig {
     return defaultFromName;
   }
 
+  public int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  public int getAsyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  public RejectionPolicy getAsyncRejectionPolicy() {
+    return asyncRejectionPolicy;
+  }
+
+  public long getAttachmentCacheMaxBytes() {
+    return attachmentCacheMaxBytes;
+  }
+
+  public long getStreamingAttachmentThreshold() {
+    return streamingAttachmentThreshold;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  public long getIdleConnectionTimeoutMillis() {
+    return idleConnectionTimeoutMillis;
+  }
+
+  public long getCoalescingWindowMillis() {
+    return coalescingWindowMillis;
+  }
+
+  public int getCoalescingMaxRecipients() {
+    return coalescingMaxRecipients;
+  }
+
+  public int getRetryMaxAttempts() {
+    return retryMaxAttempts;
+  }
+
+  public long getRetryInitialBackoffMillis() {
+    return retryInitialBackoffMillis;
+  }
+
+  public long getRetryMaxBackoffMillis() {
+    return retryMaxBackoffMillis;
+  }
+
+  public double getRetryJitter() {
+    return retryJitter;
+  }
+
+  public int getCircuitBreakerFailureThreshold() {
+    return circuitBreakerFailureThreshold;
+  }
+
+  public long getCircuitBreakerOpenMillis() {
+    return circuitBreakerOpenMillis;
+  }
+
+  public double getMessagesPerSecond() {
+    return messagesPerSecond;
+  }
+
+  public long getRecipientsPerHour() {
+    return recipientsPerHour;
+  }
+
+  public RateLimitMode getRateLimitMode() {
+    return rateLimitMode;
+  }
+
+  public long getRateLimitTimeoutMillis() {
+    return rateLimitTimeoutMillis;
+  }
+
+  public File getOutboxDirectory() {
+    return outboxDirectory;
+  }
+
+  public long getOutboxSegmentBytes() {
+    return outboxSegmentBytes;
+  }
+
+  public Set<String> getDebugAllowedAddresses() {
+    return debugAllowedAddresses;
+  }
+
+  public Set<String> getDebugAllowedDomains() {
+    return debugAllowedDomains;
+  }
+
+  public MandrillServiceMetrics getMetrics() {
+    return metrics;
+  }
+
+  public long getIdempotencyTtlMillis() {
+    return idempotencyTtlMillis;
+  }
+
+  public long getIdempotencyMaxKeys() {
+    return idempotencyMaxKeys;
+  }
+
+  public File getIdempotencyFile() {
+    return idempotencyFile;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public int getChunkParallelism() {
+    return chunkParallelism;
+  }
+
+  public int getTransactionalLaneWeight() {
+    return transactionalLaneWeight;
+  }
+
+  public int getBulkLaneWeight() {
+    return bulkLaneWeight;
+  }
+
+  public int getTransactionalLaneConcurrency() {
+    return transactionalLaneConcurrency;
+  }
+
+  public int getBulkLaneConcurrency() {
+    return bulkLaneConcurrency;
+  }
+
+  public int getLaneQueueSize() {
+    return laneQueueSize;
+  }
+
+  public int getLaneConcurrency() {
+    return laneConcurrency;
+  }
+
+  public int getConcurrencyLimitInitial() {
+    return concurrencyLimitInitial;
+  }
+
+  public int getConcurrencyLimitMin() {
+    return concurrencyLimitMin;
+  }
+
+  public int getConcurrencyLimitMax() {
+    return concurrencyLimitMax;
+  }
+
+  public double getConcurrencyLimitLatencyTolerance() {
+    return concurrencyLimitLatencyTolerance;
+  }
+
+  public double getConcurrencyLimitBackoffRatio() {
+    return concurrencyLimitBackoffRatio;
+  }
+
+  public long getConcurrencyLimitTimeoutMillis() {
+    return concurrencyLimitTimeoutMillis;
+  }
+
+  public long getSuppressionTtlMillis() {
+    return suppressionTtlMillis;
+  }
+
+  public long getSuppressionMaxEntries() {
+    return suppressionMaxEntries;
+  }
+
+  public File getSuppressionFile() {
+    return suppressionFile;
+  }
+
+  public SuppressionListener getSuppressionListener() {
+    return suppressionListener;
+  }
+
+  public int getAttachmentPrefetch() {
+    return attachmentPrefetch;
+  }
+
+  public int getAttachmentIoThreads() {
+    return attachmentIoThreads;
+  }
+
+  public int getReactiveMaxInFlight() {
+    return reactiveMaxInFlight;
+  }
+
+  public ThreadMode getAsyncThreadMode() {
+    return asyncThreadMode;
+  }
+
+  public int getCampaignBatchSize() {
+    return campaignBatchSize;
+  }
+
+  public String getApiRootUrl() {
+    return apiRootUrl;
+  }
+
   public static Builder newBuilder() {
     return new Builder();
   }
@@ -58,6 +372,60 @@ public class MandrillServiceConfig {
     this.debugRegex = builder.debugRegex;
     this.defaultFromMail = builder.defaultFromMail;
     this.defaultFromName = builder.defaultFromName;
+    this.asyncThreads = builder.asyncThreads;
+    this.asyncQueueSize = builder.asyncQueueSize;
+    this.asyncRejectionPolicy = builder.asyncRejectionPolicy;
+    this.attachmentCacheMaxBytes = builder.attachmentCacheMaxBytes;
+    this.streamingAttachmentThreshold = builder.streamingAttachmentThreshold;
+    this.maxConnections = builder.maxConnections;
+    this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+    this.connectTimeoutMillis = builder.connectTimeoutMillis;
+    this.readTimeoutMillis = builder.readTimeoutMillis;
+    this.idleConnectionTimeoutMillis = builder.idleConnectionTimeoutMillis;
+    this.coalescingWindowMillis = builder.coalescingWindowMillis;
+    this.coalescingMaxRecipients = builder.coalescingMaxRecipients;
+    this.retryMaxAttempts = builder.retryMaxAttempts;
+    this.retryInitialBackoffMillis = builder.retryInitialBackoffMillis;
+    this.retryMaxBackoffMillis = builder.retryMaxBackoffMillis;
+    this.retryJitter = builder.retryJitter;
+    this.circuitBreakerFailureThreshold = builder.circuitBreakerFailureThreshold;
+    this.circuitBreakerOpenMillis = builder.circuitBreakerOpenMillis;
+    this.messagesPerSecond = builder.messagesPerSecond;
+    this.recipientsPerHour = builder.recipientsPerHour;
+    this.rateLimitMode = builder.rateLimitMode;
+    this.rateLimitTimeoutMillis = builder.rateLimitTimeoutMillis;
+    this.outboxDirectory = builder.outboxDirectory;
+    this.outboxSegmentBytes = builder.outboxSegmentBytes;
+    this.debugAllowedAddresses = builder.debugAllowedAddresses;
+    this.debugAllowedDomains = builder.debugAllowedDomains;
+    this.metrics = builder.metrics;
+    this.idempotencyTtlMillis = builder.idempotencyTtlMillis;
+    this.idempotencyMaxKeys = builder.idempotencyMaxKeys;
+    this.idempotencyFile = builder.idempotencyFile;
+    this.chunkSize = builder.chunkSize;
+    this.chunkParallelism = builder.chunkParallelism;
+    this.transactionalLaneWeight = builder.transactionalLaneWeight;
+    this.bulkLaneWeight = builder.bulkLaneWeight;
+    this.transactionalLaneConcurrency = builder.transactionalLaneConcurrency;
+    this.bulkLaneConcurrency = builder.bulkLaneConcurrency;
+    this.laneQueueSize = builder.laneQueueSize;
+    this.laneConcurrency = builder.laneConcurrency;
+    this.concurrencyLimitInitial = builder.concurrencyLimitInitial;
+    this.concurrencyLimitMin = builder.concurrencyLimitMin;
+    this.concurrencyLimitMax = builder.concurrencyLimitMax;
+    this.concurrencyLimitLatencyTolerance = builder.concurrencyLimitLatencyTolerance;
+    this.concurrencyLimitBackoffRatio = builder.concurrencyLimitBackoffRatio;
+    this.concurrencyLimitTimeoutMillis = builder.concurrencyLimitTimeoutMillis;
+    this.suppressionTtlMillis = builder.suppressionTtlMillis;
+    this.suppressionMaxEntries = builder.suppressionMaxEntries;
+    this.suppressionFile = builder.suppressionFile;
+    this.suppressionListener = builder.suppressionListener;
+    this.attachmentPrefetch = builder.attachmentPrefetch;
+    this.attachmentIoThreads = builder.attachmentIoThreads;
+    this.reactiveMaxInFlight = builder.reactiveMaxInFlight;
+    this.asyncThreadMode = builder.asyncThreadMode;
+    this.campaignBatchSize = builder.campaignBatchSize;
+    this.apiRootUrl = builder.apiRootUrl;
   }
 
   public static class Builder {
@@ -68,6 +436,60 @@ public class MandrillServiceConfig {
     private String debugRegex;
     private String defaultFromMail;
     private String defaultFromName;
+    private int asyncThreads = 4;
+    private int asyncQueueSize = 1000;
+    private RejectionPolicy asyncRejectionPolicy = RejectionPolicy.ABORT;
+    private long attachmentCacheMaxBytes;
+    private long streamingAttachmentThreshold;
+    private int maxConnections = 20;
+    private int maxConnectionsPerRoute = 20;
+    private int connectTimeoutMillis = 10000;
+    private int readTimeoutMillis = 60000;
+    private long idleConnectionTimeoutMillis = 30000;
+    private long coalescingWindowMillis = 50;
+    private int coalescingMaxRecipients = 1000;
+    private int retryMaxAttempts = 1;
+    private long retryInitialBackoffMillis = 100;
+    private long retryMaxBackoffMillis = 5000;
+    private double retryJitter = 0.5;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenMillis = 30000;
+    private double messagesPerSecond;
+    private long recipientsPerHour;
+    private RateLimitMode rateLimitMode = RateLimitMode.BLOCK;
+    private long rateLimitTimeoutMillis = 1000;
+    private File outboxDirectory;
+    private long outboxSegmentBytes = 64L * 1024 * 1024;
+    private Set<String> debugAllowedAddresses = Collections.emptySet();
+    private Set<String> debugAllowedDomains = Collections.emptySet();
+    private MandrillServiceMetrics metrics = MandrillServiceMetrics.noOp();
+    private long idempotencyTtlMillis = TimeUnit.DAYS.toMillis(1);
+    private long idempotencyMaxKeys = 100000;
+    private File idempotencyFile;
+    private int chunkSize;
+    private int chunkParallelism = 4;
+    private int transactionalLaneWeight = 4;
+    private int bulkLaneWeight = 1;
+    private int transactionalLaneConcurrency = 8;
+    private int bulkLaneConcurrency = 6;
+    private int laneQueueSize = 1000;
+    private int laneConcurrency = 8;
+    private int concurrencyLimitInitial = 10;
+    private int concurrencyLimitMin = 1;
+    private int concurrencyLimitMax;
+    private double concurrencyLimitLatencyTolerance = 2.0;
+    private double concurrencyLimitBackoffRatio = 0.9;
+    private long concurrencyLimitTimeoutMillis = 30000;
+    private long suppressionTtlMillis;
+    private long suppressionMaxEntries = 100000;
+    private File suppressionFile;
+    private SuppressionListener suppressionListener;
+    private int attachmentPrefetch;
+    private int attachmentIoThreads = 2;
+    private int reactiveMaxInFlight = 16;
+    private ThreadMode asyncThreadMode = ThreadMode.PLATFORM;
+    private int campaignBatchSize = 5000;
+    private String apiRootUrl;
 
     public Builder withMandrillKey(String mandrillKey) {
       this.mandrillKey = mandrillKey;
@@ -99,6 +521,433 @@ public class MandrillServiceConfig {
       return this;
     }
 
+    public Builder withAsyncThreads(int asyncThreads) {
+      this.asyncThreads = asyncThreads;
+      return this;
+    }
+
+    public Builder withAsyncQueueSize(int asyncQueueSize) {
+      this.asyncQueueSize = asyncQueueSize;
+      return this;
+    }
+
+    public Builder withAsyncRejectionPolicy(RejectionPolicy asyncRejectionPolicy) {
+      this.asyncRejectionPolicy = asyncRejectionPolicy;
+      return this;
+    }
+
+    /**
+     * Caches encoded attachments up to the given size in bytes. 0 disables the cache.
+     */
+    public Builder withAttachmentCacheMaxBytes(long attachmentCacheMaxBytes) {
+      this.attachmentCacheMaxBytes = attachmentCacheMaxBytes;
+      return this;
+    }
+
+    /**
+     * Attachments of at least this many bytes are streamed from disk into the request body instead
+     * of being encoded in memory. 0 disables streaming.
+     */
+    public Builder withStreamingAttachmentThreshold(long streamingAttachmentThreshold) {
+      this.streamingAttachmentThreshold = streamingAttachmentThreshold;
+      return this;
+    }
+
+    /**
+     * Maximum number of pooled connections to the API.
+     */
+    public Builder withMaxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    public Builder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+      this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+      return this;
+    }
+
+    /**
+     * Timeout for establishing a connection and for leasing one from the pool. 0 waits forever.
+     */
+    public Builder withConnectTimeoutMillis(int connectTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Socket read timeout. 0 waits forever.
+     */
+    public Builder withReadTimeoutMillis(int readTimeoutMillis) {
+      this.readTimeoutMillis = readTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are closed. 0 keeps them open.
+     */
+    public Builder withIdleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+      this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * How long {@code CoalescingMandrillService} collects compatible messages before sending them
+     * as one request.
+     */
+    public Builder withCoalescingWindowMillis(long coalescingWindowMillis) {
+      this.coalescingWindowMillis = coalescingWindowMillis;
+      return this;
+    }
+
+    /**
+     * A coalesced request is sent early once it reaches this many recipients.
+     */
+    public Builder withCoalescingMaxRecipients(int coalescingMaxRecipients) {
+      this.coalescingMaxRecipients = coalescingMaxRecipients;
+      return this;
+    }
+
+    /**
+     * Attempts per send including the first one, 1 by default so nothing is retried. IO errors
+     * after the request was sent are only retried for messages with an idempotency key, see
+     * {@code RetryPolicy}.
+     */
+    public Builder withRetryMaxAttempts(int retryMaxAttempts) {
+      this.retryMaxAttempts = retryMaxAttempts;
+      return this;
+    }
+
+    public Builder withRetryInitialBackoffMillis(long retryInitialBackoffMillis) {
+      this.retryInitialBackoffMillis = retryInitialBackoffMillis;
+      return this;
+    }
+
+    public Builder withRetryMaxBackoffMillis(long retryMaxBackoffMillis) {
+      this.retryMaxBackoffMillis = retryMaxBackoffMillis;
+      return this;
+    }
+
+    /**
+     * Fraction of each backoff that is randomized, between 0 and 1.
+     */
+    public Builder withRetryJitter(double retryJitter) {
+      this.retryJitter = retryJitter;
+      return this;
+    }
+
+    /**
+     * Consecutive retryable failures after which sends fail fast for
+     * {@link #withCircuitBreakerOpenMillis(long)}, e.g. 5. 0 (the default) disables the circuit
+     * breaker, so every send reaches Mandrill however often the previous ones failed.
+     */
+    public Builder withCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+      this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+      return this;
+    }
+
+    public Builder withCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+      this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+      return this;
+    }
+
+    /**
+     * Client-side limit of sends per second. 0 disables the limit.
+     */
+    public Builder withMessagesPerSecond(double messagesPerSecond) {
+      this.messagesPerSecond = messagesPerSecond;
+      return this;
+    }
+
+    /**
+     * Client-side limit of recipients per hour, e.g. the account's hourly quota. 0 disables the
+     * limit.
+     */
+    public Builder withRecipientsPerHour(long recipientsPerHour) {
+      this.recipientsPerHour = recipientsPerHour;
+      return this;
+    }
+
+    public Builder withRateLimitMode(RateLimitMode rateLimitMode) {
+      this.rateLimitMode = rateLimitMode;
+      return this;
+    }
+
+    /**
+     * Maximum wait for {@link RateLimitMode#TIMED}.
+     */
+    public Builder withRateLimitTimeoutMillis(long rateLimitTimeoutMillis) {
+      this.rateLimitTimeoutMillis = rateLimitTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Directory of the write-ahead log used by {@code OutboxMandrillService}.
+     */
+    public Builder withOutboxDirectory(File outboxDirectory) {
+      this.outboxDirectory = outboxDirectory;
+      return this;
+    }
+
+    /**
+     * Size after which the outbox log starts a new segment file.
+     */
+    public Builder withOutboxSegmentBytes(long outboxSegmentBytes) {
+      this.outboxSegmentBytes = outboxSegmentBytes;
+      return this;
+    }
+
+    /**
+     * Addresses that keep their recipient in debug mode, compared case-insensitively.
+     */
+    public Builder withDebugAllowedAddresses(Set<String> debugAllowedAddresses) {
+      this.debugAllowedAddresses = debugAllowedAddresses;
+      return this;
+    }
+
+    /**
+     * Domains, including their subdomains, whose recipients are kept in debug mode.
+     */
+    public Builder withDebugAllowedDomains(Set<String> debugAllowedDomains) {
+      this.debugAllowedDomains = debugAllowedDomains;
+      return this;
+    }
+
+    /**
+     * Receives timings and counters of sent messages, no-op by default.
+     */
+    public Builder withMetrics(MandrillServiceMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * How long the idempotency key of a sent message is remembered, 0 disables deduplication.
+     */
+    public Builder withIdempotencyTtlMillis(long idempotencyTtlMillis) {
+      this.idempotencyTtlMillis = idempotencyTtlMillis;
+      return this;
+    }
+
+    /**
+     * Maximum number of remembered idempotency keys.
+     */
+    public Builder withIdempotencyMaxKeys(long idempotencyMaxKeys) {
+      this.idempotencyMaxKeys = idempotencyMaxKeys;
+      return this;
+    }
+
+    /**
+     * File the idempotency keys of sent messages are kept in across restarts, none by default.
+     */
+    public Builder withIdempotencyFile(File idempotencyFile) {
+      this.idempotencyFile = idempotencyFile;
+      return this;
+    }
+
+    /**
+     * Maximum recipients per API call, larger messages are split into chunks, e.g. 1000. 0 (the
+     * default) sends every message in one call. Chunks are accepted or fail independently, see
+     * {@code PartialSendException}. Messages with preserveRecipients=true are never split.
+     */
+    public Builder withChunkSize(int chunkSize) {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * Maximum chunks of one message sent at the same time.
+     */
+    public Builder withChunkParallelism(int chunkParallelism) {
+      this.chunkParallelism = chunkParallelism;
+      return this;
+    }
+
+    /**
+     * Share of dispatch slots given to the transactional lane while both lanes have queued messages.
+     */
+    public Builder withTransactionalLaneWeight(int transactionalLaneWeight) {
+      this.transactionalLaneWeight = transactionalLaneWeight;
+      return this;
+    }
+
+    /**
+     * Share of dispatch slots given to the bulk lane while both lanes have queued messages.
+     */
+    public Builder withBulkLaneWeight(int bulkLaneWeight) {
+      this.bulkLaneWeight = bulkLaneWeight;
+      return this;
+    }
+
+    /**
+     * Maximum transactional messages sent at the same time, no more than the lane concurrency
+     * shared by all lanes.
+     */
+    public Builder withTransactionalLaneConcurrency(int transactionalLaneConcurrency) {
+      this.transactionalLaneConcurrency = transactionalLaneConcurrency;
+      return this;
+    }
+
+    /**
+     * Maximum bulk messages sent at the same time, no more than the lane concurrency shared by all
+     * lanes.
+     */
+    public Builder withBulkLaneConcurrency(int bulkLaneConcurrency) {
+      this.bulkLaneConcurrency = bulkLaneConcurrency;
+      return this;
+    }
+
+    /**
+     * Maximum queued messages per lane, further messages are rejected.
+     */
+    public Builder withLaneQueueSize(int laneQueueSize) {
+      this.laneQueueSize = laneQueueSize;
+      return this;
+    }
+
+    /**
+     * Maximum messages of all lanes sent at the same time, shared by the lanes by weight. A lane
+     * gets a slot only while it is below both its own cap and this limit. The API calls of these
+     * messages then wait for the adaptive limiter if it is enabled, see
+     * {@link #withConcurrencyLimitMax}.
+     */
+    public Builder withLaneConcurrency(int laneConcurrency) {
+      this.laneConcurrency = laneConcurrency;
+      return this;
+    }
+
+    /**
+     * Concurrent API calls allowed before any latency was observed.
+     */
+    public Builder withConcurrencyLimitInitial(int concurrencyLimitInitial) {
+      this.concurrencyLimitInitial = concurrencyLimitInitial;
+      return this;
+    }
+
+    /**
+     * Lowest concurrency limit the adaptive limiter backs off to.
+     */
+    public Builder withConcurrencyLimitMin(int concurrencyLimitMin) {
+      this.concurrencyLimitMin = concurrencyLimitMin;
+      return this;
+    }
+
+    /**
+     * Highest concurrency limit the adaptive limiter grows to, e.g. 20. 0 (the default) disables
+     * the limiter. The limiter counts API calls, so chunks of one message and sends outside the
+     * lanes count separately. It compares every round trip with the lowest recent one, so it suits
+     * traffic of similar messages; large attachments among small messages hold the limit down.
+     */
+    public Builder withConcurrencyLimitMax(int concurrencyLimitMax) {
+      this.concurrencyLimitMax = concurrencyLimitMax;
+      return this;
+    }
+
+    /**
+     * Round trips longer than this multiple of the lowest recent round trip reduce the limit.
+     */
+    public Builder withConcurrencyLimitLatencyTolerance(double concurrencyLimitLatencyTolerance) {
+      this.concurrencyLimitLatencyTolerance = concurrencyLimitLatencyTolerance;
+      return this;
+    }
+
+    /**
+     * Factor the limit is multiplied with on overload.
+     */
+    public Builder withConcurrencyLimitBackoffRatio(double concurrencyLimitBackoffRatio) {
+      this.concurrencyLimitBackoffRatio = concurrencyLimitBackoffRatio;
+      return this;
+    }
+
+    /**
+     * Longest time a call waits for the adaptive limiter, then it fails with a
+     * {@code RateLimitExceededException}.
+     */
+    public Builder withConcurrencyLimitTimeoutMillis(long concurrencyLimitTimeoutMillis) {
+      this.concurrencyLimitTimeoutMillis = concurrencyLimitTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * How long a permanently rejected address is left out of messages, e.g. 7 days. 0 (the
+     * default) disables suppression.
+     */
+    public Builder withSuppressionTtlMillis(long suppressionTtlMillis) {
+      this.suppressionTtlMillis = suppressionTtlMillis;
+      return this;
+    }
+
+    /**
+     * Maximum number of suppressed addresses remembered.
+     */
+    public Builder withSuppressionMaxEntries(long suppressionMaxEntries) {
+      this.suppressionMaxEntries = suppressionMaxEntries;
+      return this;
+    }
+
+    /**
+     * File the suppressed addresses are kept in across restarts, none by default.
+     */
+    public Builder withSuppressionFile(File suppressionFile) {
+      this.suppressionFile = suppressionFile;
+      return this;
+    }
+
+    /**
+     * Told about recipients left out of a message because they are suppressed.
+     */
+    public Builder withSuppressionListener(SuppressionListener suppressionListener) {
+      this.suppressionListener = suppressionListener;
+      return this;
+    }
+
+    /**
+     * Number of queued messages whose attachments are read and encoded ahead of sending on a
+     * separate pool, 0 (the default) prepares them on the dispatch thread.
+     */
+    public Builder withAttachmentPrefetch(int attachmentPrefetch) {
+      this.attachmentPrefetch = attachmentPrefetch;
+      return this;
+    }
+
+    /**
+     * Threads reading and encoding prefetched attachments.
+     */
+    public Builder withAttachmentIoThreads(int attachmentIoThreads) {
+      this.attachmentIoThreads = attachmentIoThreads;
+      return this;
+    }
+
+    /**
+     * Maximum number of messages a reactive send has requested from its publisher and not yet
+     * delivered a result for.
+     */
+    public Builder withReactiveMaxInFlight(int reactiveMaxInFlight) {
+      this.reactiveMaxInFlight = reactiveMaxInFlight;
+      return this;
+    }
+
+    public Builder withAsyncThreadMode(ThreadMode asyncThreadMode) {
+      this.asyncThreadMode = asyncThreadMode;
+      return this;
+    }
+
+    /**
+     * Rows of a campaign recipient file sent per message and checkpoint.
+     */
+    public Builder withCampaignBatchSize(int campaignBatchSize) {
+      this.campaignBatchSize = campaignBatchSize;
+      return this;
+    }
+
+    /**
+     * @param apiRootUrl root url of the API ending with a slash, e.g. of a local stub; null for the
+     *        Mandrill servers
+     */
+    public Builder withApiRootUrl(String apiRootUrl) {
+      this.apiRootUrl = apiRootUrl;
+      return this;
+    }
+
     public MandrillServiceConfig build() {
       return new MandrillServiceConfig(this);
     }
@@ -1,11 +1,34 @@
 package de.tschumacher.mandrillservice.domain;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * An attachment read from a file or path, held in memory, or opened by a supplier. The content is
+ * only read when the message is sent.
+ */
 public class MandrillServiceAttachment {
   private final String name;
   private final String type;
   private final File file;
+  private final Path path;
+  private final byte[] content;
+  private final ContentSupplier contentSupplier;
+
+  @FunctionalInterface
+  public interface ContentSupplier {
+    /**
+     * Opens the content, called once per read, e.g. again when a send is retried.
+     */
+    InputStream open() throws IOException;
+  }
 
   public String getName() {
     return this.name;
@@ -15,10 +38,69 @@ public class MandrillServiceAttachment {
     return this.type;
   }
 
+  /**
+   * @return the file of the attachment, null if its content does not come from the default file
+   *         system
+   */
   public File getFile() {
     return this.file;
   }
 
+  public Path getPath() {
+    return this.path;
+  }
+
+  public byte[] getContent() {
+    return this.content;
+  }
+
+  public ContentSupplier getContentSupplier() {
+    return this.contentSupplier;
+  }
+
+  /**
+   * @return the length of the content in bytes, -1 if it is only known after reading it or the
+   *         file cannot be read
+   */
+  public long getLength() {
+    if (this.path != null) {
+      try {
+        return Files.size(this.path);
+      } catch (IOException e) {
+        return -1;
+      }
+    }
+    if (this.content != null) {
+      return this.content.length;
+    }
+    return -1;
+  }
+
+  public InputStream openStream() throws IOException {
+    if (this.path != null) {
+      return Files.newInputStream(this.path);
+    }
+    if (this.content != null) {
+      return new ByteArrayInputStream(this.content);
+    }
+    if (this.contentSupplier != null) {
+      return this.contentSupplier.open();
+    }
+    throw new IOException("attachment " + this.name + " has no content");
+  }
+
+  public byte[] readContent() throws IOException {
+    if (this.path != null) {
+      return Files.readAllBytes(this.path);
+    }
+    if (this.content != null) {
+      return this.content;
+    }
+    try (InputStream in = openStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
 
   public static Builder newBuilder() {
     return new Builder();
@@ -27,7 +109,19 @@ public class MandrillServiceAttachment {
   private MandrillServiceAttachment(Builder builder) {
     this.name = builder.name;
     this.type = builder.type;
-    this.file = builder.file;
+    if (builder.file != null) {
+      this.file = builder.file;
+      this.path = builder.file.toPath();
+    } else if (builder.path != null) {
+      this.file = builder.path.getFileSystem() == FileSystems.getDefault()
+          ? builder.path.toFile() : null;
+      this.path = builder.path;
+    } else {
+      this.file = null;
+      this.path = null;
+    }
+    this.content = builder.content;
+    this.contentSupplier = builder.contentSupplier;
   }
 
   public static class Builder {
@@ -35,6 +129,9 @@ public class MandrillServiceAttachment {
     private String name;
     private String type;
     private File file;
+    private Path path;
+    private byte[] content;
+    private ContentSupplier contentSupplier;
 
     public Builder withName(String name) {
       this.name = name;
@@ -51,6 +148,24 @@ public class MandrillServiceAttachment {
       return this;
     }
 
+    public Builder withPath(Path path) {
+      this.path = path;
+      return this;
+    }
+
+    /**
+     * @param content held as given, not copied
+     */
+    public Builder withContent(byte[] content) {
+      this.content = content;
+      return this;
+    }
+
+    public Builder withContentSupplier(ContentSupplier contentSupplier) {
+      this.contentSupplier = contentSupplier;
+      return this;
+    }
+
     public MandrillServiceAttachment build() {
       return new MandrillServiceAttachment(this);
     }
@@ -14,10 +14,23 @@
 package de.tschumacher.mandrillservice.domain;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class MandrillServiceMessage {
+
+  /**
+   * Dispatch lane of a message, see {@code PriorityMandrillService}.
+   */
+  public enum Lane {
+    TRANSACTIONAL, BULK
+  }
+
   private final List<String> emails;
   private final String subject;
   private final Map<String, String> replacements;
@@ -28,6 +41,9 @@ public class MandrillServiceMessage {
   private final Map<String, String> headers;
   private final List<Recipient> recipients;
   private final Boolean preserveRecipients;
+  private final Map<String, Map<String, String>> recipientReplacements;
+  private final String idempotencyKey;
+  private final Lane lane;
 
   public List<String> getEmails() {
     return this.emails;
@@ -69,6 +85,63 @@ public class MandrillServiceMessage {
     return preserveRecipients;
   }
 
+  /**
+   * @return replacements per recipient email address, sent as Mandrill merge vars
+   */
+  public Map<String, Map<String, String>> getRecipientReplacements() {
+    return recipientReplacements;
+  }
+
+  /**
+   * @return key identifying the logical message, sends with a key already sent are dropped and
+   *         sends with a key still being sent wait for its outcome
+   */
+  public String getIdempotencyKey() {
+    return idempotencyKey;
+  }
+
+  /**
+   * @return the dispatch lane, {@link Lane#TRANSACTIONAL} if none was set
+   */
+  public Lane getLane() {
+    return lane;
+  }
+
+  /**
+   * @return a copy of the message for the given recipients only, e.g. the failed recipients of a
+   *         partial send, with the given idempotency key
+   */
+  public MandrillServiceMessage forRecipients(Collection<String> emails, String idempotencyKey) {
+    final Set<String> addresses = new HashSet<>(emails.size() * 2);
+    for (final String email : emails) {
+      addresses.add(email.toLowerCase(Locale.ROOT));
+    }
+    final Builder builder = newBuilder()
+        .withSubject(this.subject)
+        .withReplacements(this.replacements)
+        .withTemplate(this.template)
+        .withFromEmail(this.fromEmail)
+        .withFromName(this.fromName)
+        .withAttachments(this.attachments)
+        .withHeaders(this.headers)
+        .withPreserveRecipients(this.preserveRecipients)
+        .withRecipientReplacements(this.recipientReplacements)
+        .withIdempotencyKey(idempotencyKey)
+        .withLane(this.lane);
+    if (this.emails != null) {
+      builder.withEmails(this.emails.stream()
+          .filter(email -> email != null && addresses.contains(email.toLowerCase(Locale.ROOT)))
+          .collect(Collectors.toList()));
+    }
+    if (this.recipients != null) {
+      builder.withRecipients(this.recipients.stream()
+          .filter(recipient -> recipient.getEmail() != null
+              && addresses.contains(recipient.getEmail().toLowerCase(Locale.ROOT)))
+          .collect(Collectors.toList()));
+    }
+    return builder.build();
+  }
+
   public static Builder newBuilder() {
     return new Builder();
   }
@@ -84,6 +157,9 @@ public class MandrillServiceMessage {
     this.headers = builder.headers;
     this.recipients = builder.recipients;
     this.preserveRecipients = builder.preserveRecipients;
+    this.recipientReplacements = builder.recipientReplacements;
+    this.idempotencyKey = builder.idempotencyKey;
+    this.lane = builder.lane;
   }
 
   public static class Builder {
@@ -98,6 +174,9 @@ public class MandrillServiceMessage {
     private Map<String, String> headers;
     private List<Recipient> recipients;
     private Boolean preserveRecipients;
+    private Map<String, Map<String, String>> recipientReplacements;
+    private String idempotencyKey;
+    private Lane lane = Lane.TRANSACTIONAL;
 
     public Builder withEmail(String email) {
       this.emails = new ArrayList<String>();
@@ -155,6 +234,22 @@ public class MandrillServiceMessage {
       return this;
     }
 
+    public Builder withRecipientReplacements(
+        Map<String, Map<String, String>> recipientReplacements) {
+      this.recipientReplacements = recipientReplacements;
+      return this;
+    }
+
+    public Builder withIdempotencyKey(String idempotencyKey) {
+      this.idempotencyKey = idempotencyKey;
+      return this;
+    }
+
+    public Builder withLane(Lane lane) {
+      this.lane = lane;
+      return this;
+    }
+
     public MandrillServiceMessage build() {
       return new MandrillServiceMessage(this);
     }
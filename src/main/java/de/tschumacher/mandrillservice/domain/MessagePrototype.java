@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVar;
+
+/**
+ * Parts shared by every message of a template, registered once with
+ * {@code DefaultMandrillService.registerPrototype}. The static replacements are converted to merge
+ * vars when the prototype is built, and those merge vars and the headers are reused by every send,
+ * so a send only converts its recipients and its own replacements.
+ *
+ * <p>Values set on a message win over the prototype: its sender and subject replace the
+ * prototype's, its headers and replacements are added to the prototype's and replace those with
+ * the same name.
+ */
+public final class MessagePrototype {
+
+  private final String template;
+  private final String subject;
+  private final String fromEmail;
+  private final String fromName;
+  private final Map<String, String> headers;
+  private final Map<String, String> replacements;
+  private final List<MergeVar> mergeVars;
+
+  private MessagePrototype(Builder builder) {
+    this.template = builder.template;
+    this.subject = builder.subject;
+    this.fromEmail = builder.fromEmail;
+    this.fromName = builder.fromName;
+    this.headers = builder.headers == null ? null
+        : Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+    this.replacements = builder.replacements == null ? null
+        : Collections.unmodifiableMap(new LinkedHashMap<>(builder.replacements));
+    this.mergeVars = this.replacements == null ? null : createMergeVars(this.replacements);
+  }
+
+  public String getTemplate() {
+    return this.template;
+  }
+
+  public String getSubject() {
+    return this.subject;
+  }
+
+  public String getFromEmail() {
+    return this.fromEmail;
+  }
+
+  public String getFromName() {
+    return this.fromName;
+  }
+
+  public Map<String, String> getHeaders() {
+    return this.headers;
+  }
+
+  public Map<String, String> getReplacements() {
+    return this.replacements;
+  }
+
+  /**
+   * @return the replacements as merge vars, shared by all messages and not to be modified
+   */
+  public List<MergeVar> getMergeVars() {
+    return this.mergeVars;
+  }
+
+  private static List<MergeVar> createMergeVars(Map<String, String> replacements) {
+    final List<MergeVar> mergeVars = new ArrayList<>(replacements.size());
+    for (final Map.Entry<String, String> entry : replacements.entrySet()) {
+      mergeVars.add(new MergeVar(entry.getKey(), entry.getValue()));
+    }
+    return Collections.unmodifiableList(mergeVars);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private String template;
+    private String subject;
+    private String fromEmail;
+    private String fromName;
+    private Map<String, String> headers;
+    private Map<String, String> replacements;
+
+    public Builder withTemplate(String template) {
+      this.template = template;
+      return this;
+    }
+
+    public Builder withSubject(String subject) {
+      this.subject = subject;
+      return this;
+    }
+
+    public Builder withFromEmail(String fromEmail) {
+      this.fromEmail = fromEmail;
+      return this;
+    }
+
+    public Builder withFromName(String fromName) {
+      this.fromName = fromName;
+      return this;
+    }
+
+    public Builder withHeaders(Map<String, String> headers) {
+      this.headers = headers;
+      return this;
+    }
+
+    /**
+     * @param replacements merge vars that are the same for every message of the template
+     */
+    public Builder withReplacements(Map<String, String> replacements) {
+      this.replacements = replacements;
+      return this;
+    }
+
+    public MessagePrototype build() {
+      return new MessagePrototype(this);
+    }
+  }
+}
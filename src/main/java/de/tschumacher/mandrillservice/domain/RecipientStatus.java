@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.domain;
+
+import java.util.Locale;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+/**
+ * Outcome of a message for one recipient.
+ */
+public class RecipientStatus {
+
+  public enum Status {
+    SENT, QUEUED, SCHEDULED, REJECTED, INVALID,
+    /** left out because an earlier message to the address was rejected permanently */
+    SUPPRESSED,
+    /** not sent because the API call for the chunk of the recipient failed */
+    FAILED,
+    /** a status this version does not know */
+    UNKNOWN;
+
+    static Status of(String status) {
+      if (status == null) {
+        return UNKNOWN;
+      }
+      switch (status) {
+        case "sent":
+          return SENT;
+        case "queued":
+          return QUEUED;
+        case "scheduled":
+          return SCHEDULED;
+        case "rejected":
+          return REJECTED;
+        case "invalid":
+          return INVALID;
+        default:
+          return UNKNOWN;
+      }
+    }
+  }
+
+  private final String email;
+  private final Status status;
+  private final String messageId;
+  private final String rejectReason;
+
+  public RecipientStatus(String email, Status status, String messageId, String rejectReason) {
+    this.email = email;
+    this.status = status;
+    this.messageId = messageId;
+    this.rejectReason = rejectReason;
+  }
+
+  public static RecipientStatus of(MandrillMessageStatus status) {
+    return new RecipientStatus(status.getEmail(), Status.of(status.getStatus()), status.getId(),
+        status.getRejectReason());
+  }
+
+  public static RecipientStatus suppressed(String email) {
+    return new RecipientStatus(email, Status.SUPPRESSED, null, null);
+  }
+
+  public static RecipientStatus failed(String email) {
+    return new RecipientStatus(email, Status.FAILED, null, null);
+  }
+
+  public String getEmail() {
+    return this.email;
+  }
+
+  public Status getStatus() {
+    return this.status;
+  }
+
+  /**
+   * @return the id Mandrill assigned to the message for this recipient, null if it was not sent
+   */
+  public String getMessageId() {
+    return this.messageId;
+  }
+
+  /**
+   * @return why Mandrill rejected the recipient, e.g. {@code hard-bounce}, null if it was not
+   *         rejected
+   */
+  public String getRejectReason() {
+    return this.rejectReason;
+  }
+
+  /**
+   * @return whether Mandrill sent, queued or scheduled the message for this recipient
+   */
+  public boolean isAccepted() {
+    return this.status == Status.SENT || this.status == Status.QUEUED
+        || this.status == Status.SCHEDULED;
+  }
+
+  boolean hasEmail(String email) {
+    return this.email != null && this.email.toLowerCase(Locale.ROOT).equals(email);
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+/**
+ * Outcome of a send with one {@link RecipientStatus} per recipient, taken from the response of the
+ * API call, plus the recipients that were left out because they are suppressed. A message dropped
+ * as a duplicate of an earlier message with the same idempotency key has no recipients; it is only
+ * reported once the earlier message was sent.
+ *
+ * <p>A message split into chunks can be sent partially: the recipients of failed chunks are
+ * {@link RecipientStatus.Status#FAILED} and the errors are in {@link #getFailures()}. Such a result
+ * is thrown in a {@code PartialSendException}, and sending the message again with the same
+ * idempotency key only sends the chunks that failed.
+ */
+public class SendResult {
+
+  private static final SendResult DUPLICATE =
+      new SendResult(Collections.emptyList(), Collections.emptyList(), true);
+
+  private final List<RecipientStatus> recipients;
+  private final List<Exception> failures;
+  private final boolean duplicate;
+
+  public SendResult(List<RecipientStatus> recipients) {
+    this(recipients, Collections.emptyList(), false);
+  }
+
+  private SendResult(List<RecipientStatus> recipients, List<Exception> failures,
+      boolean duplicate) {
+    this.recipients = Collections.unmodifiableList(recipients);
+    this.failures = Collections.unmodifiableList(failures);
+    this.duplicate = duplicate;
+  }
+
+  public static SendResult of(MandrillMessageStatus[] statuses, List<String> suppressed) {
+    final List<RecipientStatus> recipients =
+        new ArrayList<>((statuses == null ? 0 : statuses.length) + suppressed.size());
+    if (statuses != null) {
+      for (final MandrillMessageStatus status : statuses) {
+        if (status != null) {
+          recipients.add(RecipientStatus.of(status));
+        }
+      }
+    }
+    for (final String email : suppressed) {
+      recipients.add(RecipientStatus.suppressed(email));
+    }
+    return new SendResult(recipients);
+  }
+
+  /**
+   * @param failed recipients of the chunks that failed
+   * @param failures errors of the chunks that failed
+   */
+  public static SendResult partial(MandrillMessageStatus[] statuses, List<String> suppressed,
+      List<String> failed, List<Exception> failures) {
+    final List<RecipientStatus> recipients = new ArrayList<>(of(statuses, suppressed).recipients);
+    for (final String email : failed) {
+      recipients.add(RecipientStatus.failed(email));
+    }
+    return new SendResult(recipients, failures, false);
+  }
+
+  public static SendResult duplicate() {
+    return DUPLICATE;
+  }
+
+  public List<RecipientStatus> getRecipients() {
+    return this.recipients;
+  }
+
+  /**
+   * @return the status of the recipient, null if the result has none for the address
+   */
+  public RecipientStatus getRecipient(String email) {
+    final String address = email.toLowerCase(Locale.ROOT);
+    for (final RecipientStatus recipient : this.recipients) {
+      if (recipient.hasEmail(address)) {
+        return recipient;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the statuses of the given recipients only, used to split the result of a message that
+   *         was sent on behalf of several callers
+   */
+  public SendResult forRecipients(Collection<String> emails) {
+    final Set<String> addresses = new HashSet<>(emails.size() * 2);
+    for (final String email : emails) {
+      addresses.add(email.toLowerCase(Locale.ROOT));
+    }
+    final List<RecipientStatus> selected = new ArrayList<>();
+    for (final RecipientStatus recipient : this.recipients) {
+      if (recipient.getEmail() != null
+          && addresses.contains(recipient.getEmail().toLowerCase(Locale.ROOT))) {
+        selected.add(recipient);
+      }
+    }
+    return new SendResult(selected, this.failures, this.duplicate);
+  }
+
+  /**
+   * @return errors of the chunks that failed, empty unless the message was sent partially
+   */
+  public List<Exception> getFailures() {
+    return this.failures;
+  }
+
+  /**
+   * @return whether the message was dropped as a duplicate of an earlier message
+   */
+  public boolean isDuplicate() {
+    return this.duplicate;
+  }
+
+  /**
+   * @return whether Mandrill accepted the message for every recipient
+   */
+  public boolean isAccepted() {
+    return this.recipients.stream().allMatch(RecipientStatus::isAccepted);
+  }
+}
@@ -13,6 +13,9 @@
  */
 package de.tschumacher.mandrillservice.exception;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
 public class MandrillServiceException extends RuntimeException {
 
   /**
@@ -24,5 +27,27 @@ public class MandrillServiceException extends RuntimeException {
     super(e);
   }
 
+  public MandrillServiceException(String message) {
+    super(message);
+  }
+
+  /**
+   * Unwraps the failure of a future into the {@code MandrillServiceException} that caused it.
+   */
+  public static MandrillServiceException of(Throwable throwable) {
+    Throwable cause = throwable;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof MandrillServiceException) {
+      return (MandrillServiceException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new MandrillServiceException((Exception) cause);
+  }
+
 
 }
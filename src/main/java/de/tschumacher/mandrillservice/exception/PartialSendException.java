@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.exception;
+
+import de.tschumacher.mandrillservice.domain.SendResult;
+
+/**
+ * Some chunks of a message failed while others were accepted. The result holds the statuses of the
+ * accepted recipients and the failed recipients as {@code FAILED}. The cause is the first failure.
+ */
+public class PartialSendException extends MandrillServiceException {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  private final transient SendResult result;
+
+  public PartialSendException(SendResult result, Exception cause) {
+    super(cause);
+    this.result = result;
+  }
+
+  public SendResult getResult() {
+    return this.result;
+  }
+
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.idempotency;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers idempotency keys of messages that are being sent or were sent within the ttl. The cache
+ * is bounded by the number of keys and evicts the oldest keys first.
+ *
+ * <p>A key is pending from {@link #tryAcquire} until {@link #markSent} or {@link #release}, and
+ * {@link #whenDone} tells a duplicate how the pending send ended.
+ *
+ * <p>If a file is given, keys of sent messages are appended to it and loaded again on startup. The
+ * file is compacted to the keys that are still alive whenever the cache is opened.
+ */
+public class IdempotencyCache implements AutoCloseable {
+
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, Long> expiries;
+  private final ConcurrentMap<String, CompletableFuture<Boolean>> pending =
+      new ConcurrentHashMap<>();
+  private final Writer writer;
+
+  public IdempotencyCache(long ttlMillis, long maxKeys, File file) throws IOException {
+    this(ttlMillis, maxKeys, file, System::currentTimeMillis);
+  }
+
+  IdempotencyCache(long ttlMillis, long maxKeys, File file, LongSupplier clock) throws IOException {
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.expiries = CacheBuilder.newBuilder()
+        .maximumSize(maxKeys)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .<String, Long>build()
+        .asMap();
+    this.writer = file == null ? null : open(file.toPath());
+  }
+
+  /**
+   * @return true if the key is new and the message should be sent, false for a duplicate
+   */
+  public boolean tryAcquire(String key) {
+    final CompletableFuture<Boolean> done = new CompletableFuture<>();
+    if (this.pending.putIfAbsent(key, done) != null) {
+      return false;
+    }
+    final long now = this.clock.getAsLong();
+    // keys loaded from the file expire by their own timestamp
+    final Long previous = this.expiries.get(key);
+    if (previous != null && previous > now) {
+      this.pending.remove(key, done);
+      done.complete(true);
+      return false;
+    }
+    this.expiries.put(key, now + this.ttlMillis);
+    return true;
+  }
+
+  /**
+   * @return a future that completes with true once the message with the key was sent, or with false
+   *         if its send failed and the key was released
+   */
+  public CompletableFuture<Boolean> whenDone(String key) {
+    final CompletableFuture<Boolean> done = this.pending.get(key);
+    if (done != null) {
+      return done;
+    }
+    final Long expiry = this.expiries.get(key);
+    return CompletableFuture.completedFuture(expiry != null && expiry > this.clock.getAsLong());
+  }
+
+  /**
+   * Forgets the key of a message that could not be sent, so it can be sent again.
+   */
+  public void release(String key) {
+    this.expiries.remove(key);
+    complete(key, false);
+  }
+
+  /**
+   * Records the key of a sent message in the file, if any.
+   */
+  public void markSent(String key) throws IOException {
+    try {
+      final Long expiry = this.expiries.get(key);
+      if (this.writer == null || expiry == null || key.indexOf('\n') >= 0) {
+        return;
+      }
+      synchronized (this.writer) {
+        writeEntry(this.writer, key, expiry);
+        this.writer.flush();
+      }
+    } finally {
+      complete(key, true);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.writer != null) {
+      synchronized (this.writer) {
+        this.writer.close();
+      }
+    }
+  }
+
+  private void complete(String key, boolean sent) {
+    final CompletableFuture<Boolean> done = this.pending.remove(key);
+    if (done != null) {
+      done.complete(sent);
+    }
+  }
+
+  private Writer open(Path path) throws IOException {
+    final long now = this.clock.getAsLong();
+    if (Files.exists(path)) {
+      try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          final int separator = line.indexOf(' ');
+          if (separator <= 0) {
+            continue;
+          }
+          try {
+            final long expiry = Long.parseLong(line.substring(0, separator));
+            if (expiry > now) {
+              this.expiries.put(line.substring(separator + 1), expiry);
+            }
+          } catch (NumberFormatException e) {
+            // torn line at the end of the file
+          }
+        }
+      }
+    }
+
+    final Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+      for (final Map.Entry<String, Long> entry : this.expiries.entrySet()) {
+        writeEntry(out, entry.getKey(), entry.getValue());
+      }
+    }
+    Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+  }
+
+  private static void writeEntry(Writer out, String key, long expiry) throws IOException {
+    out.write(Long.toString(expiry));
+    out.write(' ');
+    out.write(key);
+    out.write('\n');
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps histograms and counters per template in memory, e.g. to expose them through an existing
+ * monitoring endpoint. Messages without a template are recorded under the empty name.
+ */
+public class InMemoryMandrillServiceMetrics implements MandrillServiceMetrics {
+
+  private final ConcurrentHashMap<String, TemplateMetrics> templates = new ConcurrentHashMap<>();
+  private volatile int concurrencyLimit;
+
+  @Override
+  public void recordBuildTime(String template, long nanos) {
+    forTemplate(template).buildTime.record(nanos);
+  }
+
+  @Override
+  public void recordAttachmentTime(String template, long nanos) {
+    forTemplate(template).attachmentTime.record(nanos);
+  }
+
+  @Override
+  public void recordApiLatency(String template, long nanos) {
+    forTemplate(template).apiLatency.record(nanos);
+  }
+
+  @Override
+  public void recordBytesSent(String template, long bytes) {
+    forTemplate(template).bytesSent.add(bytes);
+  }
+
+  @Override
+  public void recordSuccess(String template) {
+    forTemplate(template).successes.increment();
+  }
+
+  @Override
+  public void recordError(String template) {
+    forTemplate(template).errors.increment();
+  }
+
+  @Override
+  public void recordConcurrencyLimit(int limit) {
+    this.concurrencyLimit = limit;
+  }
+
+  public int getConcurrencyLimit() {
+    return this.concurrencyLimit;
+  }
+
+  public Map<String, TemplateMetrics> getTemplates() {
+    return Collections.unmodifiableMap(this.templates);
+  }
+
+  /**
+   * @return the metrics of the template, null if nothing was recorded for it
+   */
+  public TemplateMetrics getTemplate(String template) {
+    return this.templates.get(template == null ? "" : template);
+  }
+
+  private TemplateMetrics forTemplate(String template) {
+    final String key = template == null ? "" : template;
+    // computeIfAbsent locks the bin on Java 8 even if the key is present
+    final TemplateMetrics metrics = this.templates.get(key);
+    return metrics != null ? metrics : this.templates.computeIfAbsent(key, k -> new TemplateMetrics());
+  }
+
+  public static class TemplateMetrics {
+    private final LatencyHistogram buildTime = new LatencyHistogram();
+    private final LatencyHistogram attachmentTime = new LatencyHistogram();
+    private final LatencyHistogram apiLatency = new LatencyHistogram();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public LatencyHistogram getBuildTime() {
+      return this.buildTime;
+    }
+
+    public LatencyHistogram getAttachmentTime() {
+      return this.attachmentTime;
+    }
+
+    public LatencyHistogram getApiLatency() {
+      return this.apiLatency;
+    }
+
+    public long getBytesSent() {
+      return this.bytesSent.sum();
+    }
+
+    public long getSuccesses() {
+      return this.successes.sum();
+    }
+
+    public long getErrors() {
+      return this.errors.sum();
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.metrics;
+
+/**
+ * Receives timings and counters of sent messages, broken down by template. Implementations are
+ * called on the sending threads and must be thread-safe and cheap.
+ */
+public interface MandrillServiceMetrics {
+
+  /**
+   * Time spent converting the message, without attachments.
+   */
+  void recordBuildTime(String template, long nanos);
+
+  /**
+   * Time spent reading and encoding the attachments held by the message.
+   */
+  void recordAttachmentTime(String template, long nanos);
+
+  /**
+   * Round trip of a single API call, including attachments streamed into the request.
+   */
+  void recordApiLatency(String template, long nanos);
+
+  /**
+   * Size of a request body written by this library. Requests that lutung builds itself, i.e.
+   * messages without streamed attachments sent through {@code LutungMandrillTransport}, are not
+   * reported.
+   */
+  void recordBytesSent(String template, long bytes);
+
+  void recordSuccess(String template);
+
+  void recordError(String template);
+
+  /**
+   * Current limit of concurrent API calls, reported whenever it changes.
+   */
+  default void recordConcurrencyLimit(int limit) {}
+
+  static MandrillServiceMetrics noOp() {
+    return NoOpMandrillServiceMetrics.INSTANCE;
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented append-only log of pending messages. Appends are queued to a single writer thread
+ * which writes everything queued so far and syncs it to disk with one fsync (group commit), so the
+ * cost of the fsync is shared by all messages of the batch.
+ *
+ * <p>A record is {@code type, id, length, payload, crc32}. A message is pending from its
+ * {@code MESSAGE} record until its {@code DONE} record. Segments are deleted oldest first once all
+ * their messages are done, so a {@code DONE} record never outlives the message it refers to. A torn
+ * record at the end of a segment is ignored. A batch that fails to write is cut off the segment
+ * again, or the log moves on to a new segment if that fails too, so later batches are never
+ * appended after a torn record.
+ */
+class OutboxLog implements AutoCloseable {
+
+  private static final byte MESSAGE = 1;
+  private static final byte DONE = 2;
+  private static final int HEADER_SIZE = 1 + 8 + 4;
+  private static final int CRC_SIZE = 4;
+  private static final int MAX_BATCH = 1024;
+  private static final String SEGMENT_PREFIX = "outbox-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final Entry CLOSE = new Entry((byte) 0, 0, new byte[0]);
+
+  private final File directory;
+  private final long segmentBytes;
+  private final SegmentOpener opener;
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+  private final Map<Long, byte[]> recovered = new LinkedHashMap<>();
+  private final Thread writer;
+
+  // only used by the writer thread after recovery
+  private final TreeMap<Long, Integer> pendingPerSegment = new TreeMap<>();
+  private final Map<Long, Long> segmentOfMessage = new HashMap<>();
+  private final CRC32 crc = new CRC32();
+  private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+  private long activeSegment;
+  private FileChannel channel;
+  private volatile boolean closed;
+
+  OutboxLog(File directory, long segmentBytes) throws IOException {
+    this(directory, segmentBytes, path -> FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+  }
+
+  OutboxLog(File directory, long segmentBytes, SegmentOpener opener) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.opener = opener;
+    Files.createDirectories(directory.toPath());
+    openSegment(recover() + 1);
+    deleteCompletedSegments();
+    this.writer = new Thread(this::writeLoop, "mandrill-outbox-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * @return messages that were not done when the log was last closed, by id
+   */
+  Map<Long, byte[]> recovered() {
+    return this.recovered;
+  }
+
+  long nextId() {
+    return this.nextId.getAndIncrement();
+  }
+
+  /**
+   * @return completes once the message is synced to disk
+   */
+  CompletableFuture<Void> append(long id, byte[] payload) {
+    return enqueue(new Entry(MESSAGE, id, payload));
+  }
+
+  CompletableFuture<Void> markDone(long id) {
+    return enqueue(new Entry(DONE, id, new byte[0]));
+  }
+
+  @Override
+  public void close() {
+    synchronized (this.queue) {
+      this.closed = true;
+      // not interrupted, an interrupt would close the channel during a write
+      this.queue.add(CLOSE);
+    }
+    try {
+      this.writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private CompletableFuture<Void> enqueue(Entry entry) {
+    // checked and added under the lock, so no entry is added after the writer drained the queue
+    synchronized (this.queue) {
+      if (!this.closed) {
+        this.queue.add(entry);
+        return entry.future;
+      }
+    }
+    entry.future.completeExceptionally(new IOException("outbox is closed"));
+    return entry.future;
+  }
+
+  private void writeLoop() {
+    final List<Entry> batch = new ArrayList<>();
+    try {
+      boolean running = true;
+      while (running) {
+        try {
+          batch.add(this.queue.take());
+        } catch (InterruptedException e) {
+          continue;
+        }
+        this.queue.drainTo(batch, MAX_BATCH - 1);
+        running = !batch.remove(CLOSE);
+        if (!batch.isEmpty()) {
+          writeBatch(batch);
+        }
+        batch.clear();
+      }
+    } finally {
+      closeChannel();
+      synchronized (this.queue) {
+        this.closed = true;
+      }
+      for (final Entry entry : this.queue) {
+        entry.future.completeExceptionally(new IOException("outbox is closed"));
+      }
+    }
+  }
+
+  private void writeBatch(List<Entry> batch) {
+    long start = -1;
+    try {
+      this.buffer.clear();
+      for (final Entry entry : batch) {
+        writeRecord(entry.type, entry.id, entry.payload);
+      }
+      this.buffer.flip();
+      start = this.channel.size();
+      while (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      }
+      this.channel.force(false);
+      // the segment of a message is only tracked once its record is on disk
+      for (final Entry entry : batch) {
+        if (entry.type == MESSAGE) {
+          this.pendingPerSegment.merge(this.activeSegment, 1, Integer::sum);
+          this.segmentOfMessage.put(entry.id, this.activeSegment);
+        } else if (entry.type == DONE) {
+          onDone(entry.id);
+        }
+        entry.future.complete(null);
+      }
+      if (this.channel.size() >= this.segmentBytes) {
+        closeChannel();
+        openSegment(this.activeSegment + 1);
+      }
+      deleteCompletedSegments();
+    } catch (IOException e) {
+      discardFailedBatch(start);
+      for (final Entry entry : batch) {
+        entry.future.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Cuts a partly written batch off the active segment, so the next batch does not follow a torn
+   * record that recovery would stop at. If the segment cannot be truncated, the log moves on to a
+   * new segment; recovery skips the torn end of the old one.
+   */
+  private void discardFailedBatch(long start) {
+    try {
+      if (start >= 0 && this.channel.isOpen()) {
+        this.channel.truncate(start);
+        this.channel.force(false);
+        return;
+      }
+    } catch (IOException e) {
+      // move on to a new segment below
+    }
+    closeChannel();
+    try {
+      openSegment(this.activeSegment + 1);
+    } catch (IOException e) {
+      // the next batch fails on the closed channel and tries again
+    }
+  }
+
+  private void writeRecord(byte type, long id, byte[] payload) {
+    final int size = HEADER_SIZE + payload.length + CRC_SIZE;
+    if (this.buffer.remaining() < size) {
+      final ByteBuffer larger =
+          ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2, this.buffer.position() + size));
+      this.buffer.flip();
+      larger.put(this.buffer);
+      this.buffer = larger;
+    }
+    final int start = this.buffer.position();
+    this.buffer.put(type).putLong(id).putInt(payload.length).put(payload);
+    this.crc.reset();
+    this.crc.update(this.buffer.array(), start, HEADER_SIZE + payload.length);
+    this.buffer.putInt((int) this.crc.getValue());
+  }
+
+  private void onDone(long id) {
+    final Long segment = this.segmentOfMessage.remove(id);
+    if (segment != null) {
+      this.pendingPerSegment.merge(segment, -1, Integer::sum);
+    }
+  }
+
+  private void deleteCompletedSegments() {
+    while (!this.pendingPerSegment.isEmpty()) {
+      final Map.Entry<Long, Integer> oldest = this.pendingPerSegment.firstEntry();
+      if (oldest.getKey() == this.activeSegment || oldest.getValue() > 0) {
+        return;
+      }
+      this.pendingPerSegment.remove(oldest.getKey());
+      deleteSegment(oldest.getKey());
+    }
+  }
+
+  /**
+   * @return the number of the newest segment found
+   */
+  private long recover() throws IOException {
+    final TreeMap<Long, Path> segments = new TreeMap<>();
+    final File[] files = this.directory.listFiles(
+        (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files != null) {
+      for (final File file : files) {
+        final String name = file.getName();
+        segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+            name.length() - SEGMENT_SUFFIX.length())), file.toPath());
+      }
+    }
+
+    long maxId = 0;
+    for (final Map.Entry<Long, Path> segment : segments.entrySet()) {
+      final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment.getValue()));
+      while (data.remaining() >= HEADER_SIZE + CRC_SIZE) {
+        final int start = data.position();
+        final byte type = data.get();
+        final long id = data.getLong();
+        final int length = data.getInt();
+        if (length < 0 || data.remaining() < length + CRC_SIZE) {
+          break;
+        }
+        final byte[] payload = new byte[length];
+        data.get(payload);
+        this.crc.reset();
+        this.crc.update(data.array(), start, HEADER_SIZE + length);
+        if (data.getInt() != (int) this.crc.getValue()) {
+          break;
+        }
+        maxId = Math.max(maxId, id);
+        if (type == MESSAGE) {
+          this.recovered.put(id, payload);
+          this.segmentOfMessage.put(id, segment.getKey());
+        } else if (type == DONE) {
+          this.recovered.remove(id);
+          this.segmentOfMessage.remove(id);
+        }
+      }
+    }
+    this.nextId.set(maxId + 1);
+
+    for (final Long segment : segments.keySet()) {
+      this.pendingPerSegment.put(segment, 0);
+    }
+    for (final Long segment : this.segmentOfMessage.values()) {
+      this.pendingPerSegment.merge(segment, 1, Integer::sum);
+    }
+    return segments.isEmpty() ? 0 : segments.lastKey();
+  }
+
+  private void openSegment(long segment) throws IOException {
+    this.activeSegment = segment;
+    this.pendingPerSegment.putIfAbsent(segment, 0);
+    this.channel = this.opener.open(segmentPath(segment));
+  }
+
+  private void closeChannel() {
+    try {
+      if (this.channel != null && this.channel.isOpen()) {
+        this.channel.close();
+      }
+    } catch (IOException e) {
+      // the log was synced after every batch
+    }
+  }
+
+  private void deleteSegment(long segment) {
+    try {
+      Files.deleteIfExists(segmentPath(segment));
+    } catch (IOException e) {
+      // deleted again during the next recovery
+    }
+  }
+
+  private Path segmentPath(long segment) {
+    return new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, segment,
+        SEGMENT_SUFFIX)).toPath();
+  }
+
+  @FunctionalInterface
+  interface SegmentOpener {
+    FileChannel open(Path path) throws IOException;
+  }
+
+  private static final class Entry {
+    private final byte type;
+    private final long id;
+    private final byte[] payload;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    Entry(byte type, long id, byte[] payload) {
+      this.type = type;
+      this.id = id;
+      this.payload = payload;
+    }
+  }
+}
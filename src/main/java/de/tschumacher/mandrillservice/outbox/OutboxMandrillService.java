@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.outbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.RecipientStatus;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.CircuitBreakerOpenException;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.exception.PartialSendException;
+import de.tschumacher.mandrillservice.exception.RateLimitExceededException;
+import de.tschumacher.mandrillservice.resilience.RetryPolicy;
+
+/**
+ * Writes every message to a write-ahead log before handing it to the delegate, so messages accepted
+ * before a crash are sent when the service is started again. A message stays in the log until it
+ * was sent or failed with an error that a retry would not fix. Messages that are still pending at
+ * startup are sent again, so delivery is at least once. Of a message that was sent partially only
+ * the failed recipients are kept.
+ */
+public class OutboxMandrillService implements MandrillService {
+
+  private final MandrillService delegate;
+  private final RetryPolicy retryPolicy;
+  private final OutboxLog log;
+
+  public OutboxMandrillService(MandrillService delegate, MandrillServiceConfig config) {
+    this.delegate = delegate;
+    this.retryPolicy = new RetryPolicy(config);
+    try {
+      this.log = new OutboxLog(config.getOutboxDirectory(), config.getOutboxSegmentBytes());
+    } catch (IOException e) {
+      throw new MandrillServiceException(e);
+    }
+    replay();
+  }
+
+  @Override
+  public void sendMail(MandrillServiceMessage message) {
+    sendMailWithResult(message);
+  }
+
+  @Override
+  public SendResult sendMailWithResult(MandrillServiceMessage message) {
+    try {
+      return sendMailAsync(message).join();
+    } catch (CompletionException e) {
+      throw MandrillServiceException.of(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<SendResult> sendMailAsync(MandrillServiceMessage message) {
+    final long id = this.log.nextId();
+    final CompletableFuture<SendResult> future = this.log
+        .append(id, OutboxMessageCodec.encode(message))
+        .thenCompose(v -> this.delegate.sendMailAsync(message));
+    return track(id, message, future);
+  }
+
+  @Override
+  public void close() {
+    // sends still in flight mark their messages done while the delegate shuts down
+    this.delegate.close();
+    this.log.close();
+  }
+
+  private void replay() {
+    for (final Map.Entry<Long, byte[]> entry : this.log.recovered().entrySet()) {
+      final MandrillServiceMessage message = OutboxMessageCodec.decode(entry.getValue());
+      track(entry.getKey(), message, this.delegate.sendMailAsync(message));
+    }
+    this.log.recovered().clear();
+  }
+
+  private CompletableFuture<SendResult> track(long id, MandrillServiceMessage message,
+      CompletableFuture<SendResult> future) {
+    final CompletableFuture<SendResult> result = new CompletableFuture<>();
+    future.whenComplete((sendResult, e) -> {
+      final PartialSendException partial = findPartial(e);
+      if (partial != null) {
+        requeueFailed(id, message, partial)
+            .whenComplete((v, failure) -> result.completeExceptionally(partial));
+        return;
+      }
+      if (e == null || !isTransient(e, message.getIdempotencyKey() != null)) {
+        this.log.markDone(id);
+      }
+      if (e == null) {
+        result.complete(sendResult);
+      } else {
+        result.completeExceptionally(MandrillServiceException.of(e));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Replaces the logged message with one for its failed recipients, which is replayed on the next
+   * start. Its key is derived from the original key, whose accepted chunks are not sent again.
+   */
+  private CompletableFuture<Void> requeueFailed(long id, MandrillServiceMessage message,
+      PartialSendException partial) {
+    final boolean idempotent = message.getIdempotencyKey() != null;
+    final List<String> failed = new ArrayList<>();
+    for (final RecipientStatus recipient : partial.getResult().getRecipients()) {
+      if (recipient.getStatus() == RecipientStatus.Status.FAILED) {
+        failed.add(recipient.getEmail());
+      }
+    }
+    if (failed.isEmpty() || partial.getResult().getFailures().stream()
+        .noneMatch(failure -> isTransient(failure, idempotent))) {
+      return this.log.markDone(id);
+    }
+    final MandrillServiceMessage remaining = message.forRecipients(failed,
+        idempotent ? message.getIdempotencyKey() + "#failed" : null);
+    return this.log.append(this.log.nextId(), OutboxMessageCodec.encode(remaining))
+        .thenCompose(v -> this.log.markDone(id));
+  }
+
+  private static PartialSendException findPartial(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof PartialSendException) {
+        return (PartialSendException) cause;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether the message should be replayed, IO errors after the request was sent only for
+   *         messages with an idempotency key
+   */
+  private boolean isTransient(Throwable throwable, boolean idempotent) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof CircuitBreakerOpenException
+          || cause instanceof RateLimitExceededException
+          || cause instanceof RejectedExecutionException) {
+        return true;
+      }
+      if (cause instanceof MandrillServiceException || cause instanceof CompletionException) {
+        continue;
+      }
+      return cause instanceof Exception
+          && this.retryPolicy.isRetryable((Exception) cause, idempotent);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.Recipient;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Converts messages to and from the JSON stored in the outbox log. File attachments are stored as
+ * file references, other attachments with their content.
+ */
+final class OutboxMessageCodec {
+
+  private static final Gson GSON = new Gson();
+  private static final Type STRING_LIST = new TypeToken<List<String>>() {}.getType();
+  private static final Type STRING_MAP = new TypeToken<Map<String, String>>() {}.getType();
+  private static final Type RECIPIENT_REPLACEMENTS =
+      new TypeToken<Map<String, Map<String, String>>>() {}.getType();
+
+  private OutboxMessageCodec() {}
+
+  static byte[] encode(MandrillServiceMessage message) {
+    final JsonObject json = new JsonObject();
+    json.add("emails", GSON.toJsonTree(message.getEmails()));
+    json.addProperty("subject", message.getSubject());
+    json.add("replacements", GSON.toJsonTree(message.getReplacements()));
+    json.addProperty("template", message.getTemplate());
+    json.addProperty("fromEmail", message.getFromEmail());
+    json.addProperty("fromName", message.getFromName());
+    json.add("headers", GSON.toJsonTree(message.getHeaders()));
+    json.addProperty("preserveRecipients", message.getPreserveRecipients());
+    json.add("recipientReplacements", GSON.toJsonTree(message.getRecipientReplacements()));
+    json.addProperty("idempotencyKey", message.getIdempotencyKey());
+    if (message.getLane() != null) {
+      json.addProperty("lane", message.getLane().name());
+    }
+    if (message.getRecipients() != null) {
+      final JsonArray recipients = new JsonArray();
+      for (final Recipient recipient : message.getRecipients()) {
+        final JsonObject jsonRecipient = new JsonObject();
+        jsonRecipient.addProperty("email", recipient.getEmail());
+        jsonRecipient.addProperty("name", recipient.getName());
+        jsonRecipient.addProperty("type", recipient.getType().name());
+        recipients.add(jsonRecipient);
+      }
+      json.add("recipients", recipients);
+    }
+    if (message.getAttachments() != null) {
+      final JsonArray attachments = new JsonArray();
+      for (final MandrillServiceAttachment attachment : message.getAttachments()) {
+        final JsonObject jsonAttachment = new JsonObject();
+        jsonAttachment.addProperty("name", attachment.getName());
+        jsonAttachment.addProperty("type", attachment.getType());
+        if (attachment.getFile() != null) {
+          jsonAttachment.addProperty("file", attachment.getFile().getAbsolutePath());
+        } else {
+          // in-memory and supplied content does not survive a restart, so it is logged itself
+          jsonAttachment.addProperty("content",
+              Base64.getEncoder().encodeToString(readContent(attachment)));
+        }
+        attachments.add(jsonAttachment);
+      }
+      json.add("attachments", attachments);
+    }
+    return GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+  }
+
+  static MandrillServiceMessage decode(byte[] bytes) {
+    final JsonObject json =
+        new JsonParser().parse(new String(bytes, StandardCharsets.UTF_8)).getAsJsonObject();
+
+    final MandrillServiceMessage.Builder builder = MandrillServiceMessage.newBuilder()
+        .withEmails(GSON.fromJson(json.get("emails"), STRING_LIST))
+        .withSubject(getString(json, "subject"))
+        .withReplacements(GSON.fromJson(json.get("replacements"), STRING_MAP))
+        .withTemplate(getString(json, "template"))
+        .withFromEmail(getString(json, "fromEmail"))
+        .withFromName(getString(json, "fromName"))
+        .withHeaders(GSON.fromJson(json.get("headers"), STRING_MAP))
+        .withRecipientReplacements(
+            GSON.fromJson(json.get("recipientReplacements"), RECIPIENT_REPLACEMENTS))
+        .withIdempotencyKey(getString(json, "idempotencyKey"));
+    if (json.has("lane")) {
+      builder.withLane(MandrillServiceMessage.Lane.valueOf(getString(json, "lane")));
+    }
+    if (json.has("preserveRecipients")) {
+      builder.withPreserveRecipients(json.get("preserveRecipients").getAsBoolean());
+    }
+    if (json.has("recipients")) {
+      final List<Recipient> recipients = new ArrayList<>();
+      for (final JsonElement element : json.getAsJsonArray("recipients")) {
+        final JsonObject jsonRecipient = element.getAsJsonObject();
+        final Recipient recipient = new Recipient();
+        recipient.setEmail(getString(jsonRecipient, "email"));
+        recipient.setName(getString(jsonRecipient, "name"));
+        recipient.setType(Recipient.Type.valueOf(getString(jsonRecipient, "type")));
+        recipients.add(recipient);
+      }
+      builder.withRecipients(recipients);
+    }
+    if (json.has("attachments")) {
+      final List<MandrillServiceAttachment> attachments = new ArrayList<>();
+      for (final JsonElement element : json.getAsJsonArray("attachments")) {
+        final JsonObject jsonAttachment = element.getAsJsonObject();
+        attachments.add(MandrillServiceAttachment.newBuilder()
+            .withName(getString(jsonAttachment, "name"))
+            .withType(getString(jsonAttachment, "type"))
+            .withFile(
+                jsonAttachment.has("file") ? new File(getString(jsonAttachment, "file")) : null)
+            .withContent(jsonAttachment.has("content")
+                ? Base64.getDecoder().decode(getString(jsonAttachment, "content")) : null)
+            .build());
+      }
+      builder.withAttachments(attachments);
+    }
+    return builder.build();
+  }
+
+  private static byte[] readContent(MandrillServiceAttachment attachment) {
+    try {
+      return attachment.readContent();
+    } catch (IOException e) {
+      throw new MandrillServiceException(e);
+    }
+  }
+
+  private static String getString(JsonObject json, String name) {
+    final JsonElement element = json.get(name);
+    return element == null || element.isJsonNull() ? null : element.getAsString();
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage.Lane;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Queues messages per {@link Lane} and hands them to the delegate with a shared concurrency limit
+ * and a cap per lane. While several lanes have queued messages, free slots go to the lanes in
+ * proportion to their weights (smooth weighted round robin), and the cap keeps bulk mail from
+ * taking every slot, so transactional mail is not stuck behind a bulk send.
+ *
+ * <p>A lane cap above the shared limit has no effect. The delegate may limit its API calls further
+ * with its adaptive concurrency limiter.
+ */
+public class PriorityMandrillService implements MandrillService {
+
+  private static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+  private final MandrillService delegate;
+  private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+  private final int concurrency;
+  private final ThreadPoolExecutor executor;
+  private int inFlight;
+  private boolean closed;
+
+  public PriorityMandrillService(MandrillService delegate, MandrillServiceConfig config) {
+    this.delegate = delegate;
+    this.lanes.put(Lane.TRANSACTIONAL, new LaneQueue(config.getTransactionalLaneWeight(),
+        config.getTransactionalLaneConcurrency(), config.getLaneQueueSize()));
+    this.lanes.put(Lane.BULK, new LaneQueue(config.getBulkLaneWeight(),
+        config.getBulkLaneConcurrency(), config.getLaneQueueSize()));
+
+    this.concurrency = Math.max(1, config.getLaneConcurrency());
+    this.executor = new ThreadPoolExecutor(this.concurrency, this.concurrency, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("mandrill-lane-%d").setDaemon(true).build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void sendMail(MandrillServiceMessage message) {
+    sendMailWithResult(message);
+  }
+
+  @Override
+  public SendResult sendMailWithResult(MandrillServiceMessage message) {
+    try {
+      return sendMailAsync(message).join();
+    } catch (CompletionException e) {
+      throw MandrillServiceException.of(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<SendResult> sendMailAsync(MandrillServiceMessage message) {
+    final Lane lane = message.getLane() == null ? Lane.TRANSACTIONAL : message.getLane();
+    final Task task = new Task(message);
+    synchronized (this) {
+      final LaneQueue laneQueue = this.lanes.get(lane);
+      if (this.closed || laneQueue.queue.size() >= laneQueue.capacity) {
+        task.future.completeExceptionally(new MandrillServiceException(
+            new RejectedExecutionException("Mandrill " + lane + " lane is full")));
+        return task.future;
+      }
+      laneQueue.queue.add(task);
+      dispatch();
+    }
+    return task.future;
+  }
+
+  /**
+   * @return messages of the lane waiting for a free slot
+   */
+  public synchronized int getQueued(Lane lane) {
+    return this.lanes.get(lane).queue.size();
+  }
+
+  /**
+   * Waits up to 30 seconds for queued and running messages. Messages still queued then fail with a
+   * {@code RejectedExecutionException}.
+   */
+  @Override
+  public void close() {
+    final List<Task> abandoned = new ArrayList<>();
+    synchronized (this) {
+      this.closed = true;
+      final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+      long remaining = CLOSE_TIMEOUT_MILLIS;
+      while (!isIdle() && remaining > 0) {
+        try {
+          wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        remaining = deadline - System.currentTimeMillis();
+      }
+      for (final LaneQueue lane : this.lanes.values()) {
+        abandoned.addAll(lane.queue);
+        lane.queue.clear();
+      }
+    }
+    for (final Task task : abandoned) {
+      task.future.completeExceptionally(new MandrillServiceException(
+          new RejectedExecutionException("service is closed")));
+    }
+    this.executor.shutdown();
+    this.delegate.close();
+  }
+
+  private void dispatch() {
+    LaneQueue lane;
+    while ((lane = selectLane()) != null) {
+      final LaneQueue selected = lane;
+      final Task task = selected.queue.poll();
+      selected.inFlight++;
+      this.inFlight++;
+      try {
+        this.executor.execute(() -> run(selected, task));
+      } catch (RejectedExecutionException e) {
+        selected.inFlight--;
+        this.inFlight--;
+        task.future.completeExceptionally(new MandrillServiceException(e));
+      }
+    }
+  }
+
+  private LaneQueue selectLane() {
+    if (this.inFlight >= this.concurrency) {
+      return null;
+    }
+    LaneQueue selected = null;
+    int totalWeight = 0;
+    for (final LaneQueue lane : this.lanes.values()) {
+      if (lane.queue.isEmpty() || lane.inFlight >= lane.concurrency) {
+        continue;
+      }
+      lane.current += lane.weight;
+      totalWeight += lane.weight;
+      if (selected == null || lane.current > selected.current) {
+        selected = lane;
+      }
+    }
+    if (selected != null) {
+      selected.current -= totalWeight;
+    }
+    return selected;
+  }
+
+  private void run(LaneQueue lane, Task task) {
+    try {
+      task.future.complete(this.delegate.sendMailWithResult(task.message));
+    } catch (RuntimeException e) {
+      task.future.completeExceptionally(MandrillServiceException.of(e));
+    } finally {
+      synchronized (this) {
+        lane.inFlight--;
+        this.inFlight--;
+        dispatch();
+        notifyAll();
+      }
+    }
+  }
+
+  private boolean isIdle() {
+    return this.lanes.values().stream().allMatch(lane -> lane.queue.isEmpty() && lane.inFlight == 0);
+  }
+
+  private static final class LaneQueue {
+    private final int weight;
+    private final int concurrency;
+    private final int capacity;
+    private final Queue<Task> queue = new ArrayDeque<>();
+    private int inFlight;
+    private int current;
+
+    LaneQueue(int weight, int concurrency, int capacity) {
+      this.weight = Math.max(1, weight);
+      this.concurrency = Math.max(1, concurrency);
+      this.capacity = capacity;
+    }
+  }
+
+  private static final class Task {
+    private final MandrillServiceMessage message;
+    private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+
+    Task(MandrillServiceMessage message) {
+      this.message = message;
+    }
+  }
+}
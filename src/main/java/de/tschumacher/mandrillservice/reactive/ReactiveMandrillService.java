@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.reactive;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Sends the messages of a Reactive Streams publisher and publishes one {@link SendOutcome} per
+ * message, in completion order. Messages are requested from the publisher only while fewer than
+ * {@code reactiveMaxInFlight} of them are being sent or waiting for downstream demand, so a slow
+ * API or a slow subscriber slows down consumption instead of filling a buffer, and no thread
+ * blocks per message.
+ *
+ * <p>On Java 9 and later, {@code org.reactivestreams.FlowAdapters} converts from and to
+ * {@code java.util.concurrent.Flow}.
+ */
+public class ReactiveMandrillService {
+
+  private final MandrillService delegate;
+  private final int maxInFlight;
+
+  public ReactiveMandrillService(MandrillService delegate, MandrillServiceConfig config) {
+    this.delegate = delegate;
+    this.maxInFlight = Math.max(1, config.getReactiveMaxInFlight());
+  }
+
+  /**
+   * @return a publisher that subscribes to {@code messages} once per subscriber
+   */
+  public Publisher<SendOutcome> send(Publisher<MandrillServiceMessage> messages) {
+    return subscriber -> messages.subscribe(new Pipeline(subscriber));
+  }
+
+  private final class Pipeline implements Subscriber<MandrillServiceMessage>, Subscription {
+    private final Subscriber<? super SendOutcome> downstream;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // guarded by this
+    private final Queue<SendOutcome> ready = new ArrayDeque<>();
+    private Subscription upstream;
+    private long demand;
+    private long requested;
+    private int inFlight;
+    private boolean upstreamDone;
+    private Throwable failure;
+    private boolean cancelled;
+    private boolean terminated;
+
+    Pipeline(Subscriber<? super SendOutcome> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      synchronized (this) {
+        if (this.upstream != null) {
+          subscription.cancel();
+          return;
+        }
+        this.upstream = subscription;
+      }
+      this.downstream.onSubscribe(this);
+      drain();
+    }
+
+    @Override
+    public void onNext(MandrillServiceMessage message) {
+      synchronized (this) {
+        this.requested--;
+        this.inFlight++;
+      }
+      CompletableFuture<SendResult> future;
+      try {
+        future = ReactiveMandrillService.this.delegate.sendMailAsync(message);
+      } catch (RuntimeException e) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+      }
+      future.whenComplete((result, error) -> {
+        synchronized (this) {
+          this.inFlight--;
+          this.ready.add(new SendOutcome(message, result,
+              error == null ? null : MandrillServiceException.of(error)));
+        }
+        drain();
+      });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      synchronized (this) {
+        this.upstreamDone = true;
+        this.failure = throwable;
+      }
+      drain();
+    }
+
+    @Override
+    public void onComplete() {
+      synchronized (this) {
+        this.upstreamDone = true;
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      synchronized (this) {
+        if (n <= 0) {
+          this.failure = new IllegalArgumentException("request must be positive, was " + n);
+          this.cancelled = true;
+        } else {
+          this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        this.failure = null;
+        this.cancelled = true;
+      }
+      drain();
+    }
+
+    /**
+     * Emits results and requests messages. Runs on one thread at a time, a call while another
+     * thread drains makes that thread loop once more.
+     */
+    private void drain() {
+      if (this.wip.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        if (!drainCancelled()) {
+          emitReady();
+          requestOrComplete();
+        }
+      } while (this.wip.decrementAndGet() != 0);
+    }
+
+    /**
+     * @return whether the subscription was cancelled, results of messages still being sent are
+     *         dropped then
+     */
+    private boolean drainCancelled() {
+      final Subscription subscription;
+      final Throwable error;
+      synchronized (this) {
+        if (!this.cancelled) {
+          return false;
+        }
+        this.ready.clear();
+        if (this.terminated) {
+          return true;
+        }
+        this.terminated = true;
+        subscription = this.upstreamDone ? null : this.upstream;
+        this.upstreamDone = true;
+        error = this.failure;
+      }
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      if (error != null) {
+        this.downstream.onError(error);
+      }
+      return true;
+    }
+
+    private void emitReady() {
+      while (true) {
+        final SendOutcome outcome;
+        synchronized (this) {
+          if (this.cancelled || this.demand == 0 || this.ready.isEmpty()) {
+            return;
+          }
+          outcome = this.ready.poll();
+          this.demand--;
+        }
+        this.downstream.onNext(outcome);
+      }
+    }
+
+    private void requestOrComplete() {
+      final Subscription subscription;
+      final long toRequest;
+      final boolean complete;
+      final Throwable error;
+      synchronized (this) {
+        if (this.cancelled || this.terminated || this.upstream == null) {
+          return;
+        }
+        complete = this.upstreamDone && this.inFlight == 0 && this.ready.isEmpty();
+        this.terminated = complete;
+        error = this.failure;
+        subscription = this.upstream;
+        final long outstanding = this.inFlight + this.requested + this.ready.size();
+        if (this.upstreamDone) {
+          toRequest = 0;
+        } else {
+          toRequest = Math.max(0, Math.min(ReactiveMandrillService.this.maxInFlight - outstanding,
+              this.demand - outstanding));
+          this.requested += toRequest;
+        }
+      }
+
+      if (complete) {
+        if (error == null) {
+          this.downstream.onComplete();
+        } else {
+          this.downstream.onError(error);
+        }
+      } else if (toRequest > 0) {
+        subscription.request(toRequest);
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.reactive;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
+
+/**
+ * Result of one message of a reactive send. A failed message does not end the stream, its outcome
+ * carries the error instead.
+ */
+public class SendOutcome {
+
+  private final MandrillServiceMessage message;
+  private final SendResult result;
+  private final Throwable error;
+
+  SendOutcome(MandrillServiceMessage message, SendResult result, Throwable error) {
+    this.message = message;
+    this.result = result;
+    this.error = error;
+  }
+
+  public MandrillServiceMessage getMessage() {
+    return this.message;
+  }
+
+  /**
+   * @return the result of the send, null if it failed
+   */
+  public SendResult getResult() {
+    return this.result;
+  }
+
+  /**
+   * @return why the send failed, null if it succeeded
+   */
+  public Throwable getError() {
+    return this.error;
+  }
+
+  public boolean isSuccess() {
+    return this.error == null;
+  }
+}
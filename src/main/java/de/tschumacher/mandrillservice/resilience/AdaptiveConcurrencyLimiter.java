@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.exception.RateLimitExceededException;
+
+/**
+ * Limits the API calls in flight with a limit that follows the observed latency (AIMD). The limit
+ * grows by one per round of successful calls while it is in use and shrinks by the backoff ratio
+ * when a call fails with an overload error or takes longer than the tolerance times the lowest
+ * recent round trip. It shrinks at most once per round trip: calls that were already in flight
+ * when the limit shrank report the same overload and do not shrink it again.
+ *
+ * <p>Waits on a lock rather than a monitor, so waiting virtual threads do not pin their carrier.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double latencyTolerance;
+  private final double backoffRatio;
+  private final long timeoutNanos;
+  private final IntConsumer limitListener;
+  private final LongSupplier nanoClock;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotFree = this.lock.newCondition();
+
+  // guarded by lock
+  private double limit;
+  private int inFlight;
+  private long minRttNanos = Long.MAX_VALUE;
+  private long decreasedAtNanos;
+
+  public AdaptiveConcurrencyLimiter(MandrillServiceConfig config, IntConsumer limitListener) {
+    this(config.getConcurrencyLimitInitial(), config.getConcurrencyLimitMin(),
+        config.getConcurrencyLimitMax(), config.getConcurrencyLimitLatencyTolerance(),
+        config.getConcurrencyLimitBackoffRatio(), config.getConcurrencyLimitTimeoutMillis(),
+        limitListener, System::nanoTime);
+  }
+
+  AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+      double latencyTolerance, double backoffRatio, long timeoutMillis, IntConsumer limitListener,
+      LongSupplier nanoClock) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.latencyTolerance = Math.max(1, latencyTolerance);
+    this.backoffRatio = Math.min(1, Math.max(0.1, backoffRatio));
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+    this.limitListener = limitListener;
+    this.nanoClock = nanoClock;
+    this.decreasedAtNanos = nanoClock.getAsLong();
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    limitListener.accept(getLimit());
+  }
+
+  /**
+   * Waits until a call may start.
+   *
+   * @throws RateLimitExceededException if no slot became free within the timeout
+   */
+  public void acquire() throws IOException {
+    this.lock.lock();
+    try {
+      long remaining = this.timeoutNanos;
+      while (this.inFlight >= (int) this.limit) {
+        if (remaining <= 0) {
+          throw new RateLimitExceededException("Mandrill concurrency limit reached");
+        }
+        try {
+          remaining = this.slotFree.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while waiting for a concurrency slot");
+        }
+      }
+      this.inFlight++;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void onSuccess(long rttNanos) {
+    this.lock.lock();
+    try {
+      final int previous = getLimit();
+      final boolean saturated = this.inFlight * 2 >= this.limit;
+      release();
+      // the lowest round trip creeps up slowly, so a lasting slowdown becomes the new baseline
+      this.minRttNanos = this.minRttNanos == Long.MAX_VALUE ? Math.max(1, rttNanos)
+          : Math.max(1, Math.min(rttNanos, this.minRttNanos + (this.minRttNanos >> 8)));
+      if (rttNanos > this.minRttNanos * this.latencyTolerance) {
+        decrease(rttNanos);
+      } else if (saturated) {
+        this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+      }
+      notifyChange(previous);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * The call failed with an error that indicates an overloaded API.
+   */
+  public void onDropped(long rttNanos) {
+    this.lock.lock();
+    try {
+      final int previous = getLimit();
+      release();
+      decrease(rttNanos);
+      notifyChange(previous);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * The call failed for a reason unrelated to load.
+   */
+  public void onIgnored() {
+    this.lock.lock();
+    try {
+      release();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    this.lock.lock();
+    try {
+      return (int) this.limit;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void release() {
+    this.inFlight--;
+    this.slotFree.signal();
+  }
+
+  private void decrease(long rttNanos) {
+    final long now = this.nanoClock.getAsLong();
+    if (now - rttNanos - this.decreasedAtNanos >= 0) {
+      this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+      this.decreasedAtNanos = now;
+    }
+  }
+
+  private void notifyChange(int previous) {
+    final int current = getLimit();
+    if (current != previous) {
+      this.limitListener.accept(current);
+      if (current > previous) {
+        this.slotFree.signalAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.exception.CircuitBreakerOpenException;
+
+/**
+ * Opens after a number of consecutive failures and rejects calls until the open period has passed.
+ * Then a single trial call is let through: success closes the breaker, failure opens it again.
+ */
+public class CircuitBreaker {
+
+  private static final long CLOSED = -1;
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongSupplier clock;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicLong openedAt = new AtomicLong(CLOSED);
+
+  public CircuitBreaker(MandrillServiceConfig config) {
+    this(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenMillis(),
+        System::nanoTime);
+  }
+
+  CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.clock = clock;
+  }
+
+  /**
+   * @throws CircuitBreakerOpenException if the breaker is open
+   */
+  public void acquire() {
+    if (this.failureThreshold <= 0) {
+      return;
+    }
+    final long opened = this.openedAt.get();
+    if (opened == CLOSED) {
+      return;
+    }
+    final long now = this.clock.getAsLong();
+    // only the caller that moves the open period forward gets the trial call
+    if (now - opened < this.openNanos || !this.openedAt.compareAndSet(opened, now)) {
+      throw new CircuitBreakerOpenException();
+    }
+  }
+
+  public void onSuccess() {
+    this.consecutiveFailures.set(0);
+    this.openedAt.set(CLOSED);
+  }
+
+  public void onFailure() {
+    if (this.failureThreshold > 0
+        && this.consecutiveFailures.incrementAndGet() >= this.failureThreshold) {
+      this.openedAt.set(this.clock.getAsLong());
+    }
+  }
+
+  public boolean isOpen() {
+    final long opened = this.openedAt.get();
+    return opened != CLOSED && this.clock.getAsLong() - opened < this.openNanos;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig.RateLimitMode;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.exception.RateLimitExceededException;
+
+/**
+ * Enforces the configured messages per second and recipients per hour before a send reaches the
+ * API.
+ */
+public class RateLimiter {
+
+  private final TokenBucket messages;
+  private final TokenBucket recipients;
+  private final RateLimitMode mode;
+  private final long timeoutNanos;
+
+  public RateLimiter(MandrillServiceConfig config) {
+    this.messages = config.getMessagesPerSecond() > 0
+        ? new TokenBucket(config.getMessagesPerSecond(), TimeUnit.SECONDS.toNanos(1), System::nanoTime)
+        : null;
+    this.recipients = config.getRecipientsPerHour() > 0
+        ? new TokenBucket(config.getRecipientsPerHour(), TimeUnit.HOURS.toNanos(1), System::nanoTime)
+        : null;
+    this.mode = config.getRateLimitMode() == null ? RateLimitMode.BLOCK : config.getRateLimitMode();
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getRateLimitTimeoutMillis());
+  }
+
+  /**
+   * @throws RateLimitExceededException if the send is not allowed within the configured mode
+   */
+  public void acquire(int recipientCount) {
+    if (this.messages == null && this.recipients == null) {
+      return;
+    }
+    final long maxWait = maxWaitNanos();
+    long wait = 0;
+    if (this.messages != null) {
+      wait = this.messages.reserve(1, maxWait);
+      if (wait < 0) {
+        throw new RateLimitExceededException();
+      }
+    }
+    if (this.recipients != null && recipientCount > 0) {
+      final long recipientWait = this.recipients.reserve(recipientCount, maxWait);
+      if (recipientWait < 0) {
+        if (this.messages != null) {
+          this.messages.release(1);
+        }
+        throw new RateLimitExceededException();
+      }
+      wait = Math.max(wait, recipientWait);
+    }
+    sleep(wait);
+  }
+
+  private long maxWaitNanos() {
+    switch (this.mode) {
+      case FAIL_FAST:
+        return 0;
+      case TIMED:
+        return this.timeoutNanos;
+      default:
+        return Long.MAX_VALUE;
+    }
+  }
+
+  private static void sleep(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MandrillServiceException(e);
+    }
+  }
+}
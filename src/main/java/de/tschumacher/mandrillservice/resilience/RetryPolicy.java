@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+/**
+ * Retries failed calls with exponential backoff and jitter. Mandrill's GeneralError, unparseable
+ * 5xx/429 responses and IO errors before the request was sent (connection refused, connect timeout,
+ * a stale pooled connection) are retried. Other IO errors, e.g. a read timeout, may happen after
+ * Mandrill queued the message, so they are only retried for messages with an idempotency key.
+ * Everything else (invalid key, validation errors, unknown template, ...) fails immediately.
+ */
+public class RetryPolicy {
+
+  private static final String GENERAL_ERROR = "GeneralError";
+  private static final String INVALID_ERROR_FORMAT = "Invalid Error Format";
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final double jitter;
+
+  public RetryPolicy(MandrillServiceConfig config) {
+    this.maxAttempts = Math.max(1, config.getRetryMaxAttempts());
+    this.initialBackoffMillis = Math.max(0, config.getRetryInitialBackoffMillis());
+    this.maxBackoffMillis = Math.max(this.initialBackoffMillis, config.getRetryMaxBackoffMillis());
+    this.jitter = Math.min(1, Math.max(0, config.getRetryJitter()));
+  }
+
+  /**
+   * @param idempotent whether the message has an idempotency key, so IO errors after the request
+   *        was sent may be retried
+   */
+  public <T> T call(MandrillCall<T> call, CircuitBreaker circuitBreaker, boolean idempotent)
+      throws MandrillApiError, IOException {
+    for (int attempt = 1;; attempt++) {
+      circuitBreaker.acquire();
+      try {
+        final T result = call.call();
+        circuitBreaker.onSuccess();
+        return result;
+      } catch (MandrillApiError | IOException e) {
+        if (!isTransient(e)) {
+          circuitBreaker.onSuccess();
+          throw e;
+        }
+        circuitBreaker.onFailure();
+        if (attempt >= this.maxAttempts || !isRetryable(e, idempotent)) {
+          throw e;
+        }
+      }
+      sleep(backoffMillis(attempt));
+    }
+  }
+
+  /**
+   * @return whether the call may be retried, see {@link #isTransient(Exception)}
+   */
+  public boolean isRetryable(Exception e, boolean idempotent) {
+    return isTransient(e) && (idempotent || !(e instanceof IOException) || isBeforeSend(e));
+  }
+
+  /**
+   * @return whether the failure may go away when the call is repeated, regardless of whether
+   *         repeating it could send the message twice
+   */
+  public boolean isTransient(Exception e) {
+    if (e instanceof IOException) {
+      return true;
+    }
+    if (!(e instanceof MandrillApiError)) {
+      return false;
+    }
+    final MandrillApiError error = (MandrillApiError) e;
+    if (!error.hasMandrillErrorName()) {
+      return false;
+    }
+    if (GENERAL_ERROR.equals(error.getMandrillErrorName())) {
+      return true;
+    }
+    // lutung reports the http status as code when the error body cannot be parsed
+    return INVALID_ERROR_FORMAT.equals(error.getMandrillErrorName())
+        && error.hasMandrillErrorCode()
+        && (error.getMandrillErrorCode() >= 500 || error.getMandrillErrorCode() == 429);
+  }
+
+  private static boolean isBeforeSend(Exception e) {
+    return e instanceof ConnectException || e instanceof ConnectTimeoutException
+        || e instanceof UnknownHostException || e instanceof NoHttpResponseException;
+  }
+
+  long backoffMillis(int attempt) {
+    final long exponential = this.initialBackoffMillis << Math.min(attempt - 1, 30);
+    final long backoff = exponential < 0 ? this.maxBackoffMillis
+        : Math.min(this.maxBackoffMillis, exponential);
+    return backoff - (long) (backoff * this.jitter * ThreadLocalRandom.current().nextDouble());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MandrillServiceException(e);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket in its virtual scheduling form: instead of a token count it keeps the time
+ * at which the bucket is full again, updated with a single compare-and-set.
+ */
+public class TokenBucket {
+
+  private final long nanosPerPermit;
+  private final long burstNanos;
+  private final LongSupplier clock;
+  private final AtomicLong fullAt;
+
+  /**
+   * @param permits number of permits per period, also the burst size
+   * @param periodNanos length of the period
+   */
+  public TokenBucket(double permits, long periodNanos, LongSupplier clock) {
+    this.nanosPerPermit = Math.max(1, (long) (periodNanos / permits));
+    this.burstNanos = (long) (this.nanosPerPermit * Math.max(1, permits));
+    this.clock = clock;
+    this.fullAt = new AtomicLong(clock.getAsLong());
+  }
+
+  /**
+   * Reserves the permits if they become available within the given wait.
+   *
+   * @return nanos the caller has to wait before using the permits, or -1 if the permits are not
+   *         available in time and nothing was reserved
+   */
+  public long reserve(int permits, long maxWaitNanos) {
+    final long cost = this.nanosPerPermit * permits;
+    while (true) {
+      final long now = this.clock.getAsLong();
+      final long current = this.fullAt.get();
+      final long next = Math.max(current, now) + cost;
+      final long wait = Math.max(0, next - this.burstNanos - now);
+      if (wait > maxWaitNanos) {
+        return -1;
+      }
+      if (this.fullAt.compareAndSet(current, next)) {
+        return wait;
+      }
+    }
+  }
+
+  /**
+   * Returns permits reserved but not used.
+   */
+  public void release(int permits) {
+    final long cost = this.nanosPerPermit * permits;
+    this.fullAt.addAndGet(-cost);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.routing;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+
+/**
+ * Decides which recipients keep their address in debug mode. Built once per configuration: the
+ * debug regex is compiled once and the allowlists are held in hash sets, so routing an address is
+ * a set lookup per domain label plus at most one match of the compiled pattern.
+ *
+ * <p>An address is allowed if it is on the address allowlist, its domain or a parent domain is on
+ * the domain allowlist, or it matches the debug regex as a whole.
+ */
+public class RecipientRouter {
+
+  private final Pattern pattern;
+  private final Set<String> addresses;
+  private final Set<String> domains;
+
+  public RecipientRouter(String debugRegex, Set<String> allowedAddresses,
+      Set<String> allowedDomains) {
+    this.pattern = debugRegex == null ? null : Pattern.compile(debugRegex);
+    this.addresses = normalize(allowedAddresses);
+    this.domains = normalize(allowedDomains);
+  }
+
+  public static RecipientRouter of(MandrillServiceConfig config) {
+    return new RecipientRouter(config.getDebugRegex(), config.getDebugAllowedAddresses(),
+        config.getDebugAllowedDomains());
+  }
+
+  /**
+   * @return whether any rule is configured, otherwise every recipient is replaced
+   */
+  public boolean hasRules() {
+    return this.pattern != null || !this.addresses.isEmpty() || !this.domains.isEmpty();
+  }
+
+  public boolean isAllowed(String emailAddress) {
+    if (emailAddress == null) {
+      return false;
+    }
+    if (!this.addresses.isEmpty() || !this.domains.isEmpty()) {
+      final String address = emailAddress.toLowerCase(Locale.ROOT);
+      if (this.addresses.contains(address) || isAllowedDomain(address)) {
+        return true;
+      }
+    }
+    return this.pattern != null && this.pattern.matcher(emailAddress).matches();
+  }
+
+  private boolean isAllowedDomain(String address) {
+    if (this.domains.isEmpty()) {
+      return false;
+    }
+    int start = address.lastIndexOf('@') + 1;
+    if (start == 0) {
+      return false;
+    }
+    while (start > 0 && start < address.length()) {
+      if (this.domains.contains(address.substring(start))) {
+        return true;
+      }
+      start = address.indexOf('.', start) + 1;
+    }
+    return false;
+  }
+
+  private static Set<String> normalize(Set<String> values) {
+    if (values == null || values.isEmpty()) {
+      return Collections.emptySet();
+    }
+    final Set<String> normalized = new HashSet<>(values.size() * 2);
+    for (final String value : values) {
+      normalized.add(value.trim().toLowerCase(Locale.ROOT));
+    }
+    return normalized;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.suppression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.google.common.cache.CacheBuilder;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+/**
+ * Remembers addresses Mandrill rejected permanently, so they are left out of later messages
+ * instead of costing an API call and sender reputation. Addresses are held trimmed and lower case,
+ * so a lookup never matches a different address.
+ *
+ * <p>If a file is given, the entries are loaded from it on startup and written back on close.
+ */
+public class SuppressionCache implements AutoCloseable {
+
+  private static final Set<String> PERMANENT_REJECT_REASONS =
+      new HashSet<>(Arrays.asList("hard-bounce", "spam", "unsub", "invalid"));
+
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final File file;
+  private final ConcurrentMap<String, Long> expiries;
+
+  public SuppressionCache(long ttlMillis, long maxEntries, File file) throws IOException {
+    this(ttlMillis, maxEntries, file, System::currentTimeMillis);
+  }
+
+  SuppressionCache(long ttlMillis, long maxEntries, File file, LongSupplier clock)
+      throws IOException {
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.file = file;
+    this.expiries = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .<String, Long>build()
+        .asMap();
+    if (file != null && file.exists()) {
+      load(file.toPath());
+    }
+  }
+
+  public boolean isSuppressed(String email) {
+    if (email == null || this.expiries.isEmpty()) {
+      return false;
+    }
+    final String address = normalize(email);
+    final Long expiry = this.expiries.get(address);
+    if (expiry == null) {
+      return false;
+    }
+    // entries loaded from the snapshot expire by their own timestamp
+    if (expiry <= this.clock.getAsLong()) {
+      this.expiries.remove(address, expiry);
+      return false;
+    }
+    return true;
+  }
+
+  public void suppress(String email) {
+    this.expiries.put(normalize(email), this.clock.getAsLong() + this.ttlMillis);
+  }
+
+  /**
+   * Suppresses the recipients of the statuses that were rejected permanently.
+   */
+  public void record(MandrillMessageStatus[] statuses) {
+    if (statuses == null) {
+      return;
+    }
+    for (final MandrillMessageStatus status : statuses) {
+      if (status != null && status.getEmail() != null && isPermanentRejection(status)) {
+        suppress(status.getEmail());
+      }
+    }
+  }
+
+  public long size() {
+    return this.expiries.size();
+  }
+
+  /**
+   * Writes the entries to the file, if any.
+   */
+  public void snapshot() throws IOException {
+    if (this.file == null) {
+      return;
+    }
+    final Path path = this.file.toPath();
+    final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    final long now = this.clock.getAsLong();
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      for (final Map.Entry<String, Long> entry : this.expiries.entrySet()) {
+        if (entry.getValue() > now) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue());
+        }
+      }
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public void close() throws IOException {
+    snapshot();
+  }
+
+  static boolean isPermanentRejection(MandrillMessageStatus status) {
+    return "invalid".equals(status.getStatus()) || ("rejected".equals(status.getStatus())
+        && PERMANENT_REJECT_REASONS.contains(status.getRejectReason()));
+  }
+
+  private void load(Path path) throws IOException {
+    final long now = this.clock.getAsLong();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      while (true) {
+        final String address = in.readUTF();
+        final long expiry = in.readLong();
+        if (expiry > now) {
+          this.expiries.put(address, expiry);
+        }
+      }
+    } catch (EOFException e) {
+      // end of the snapshot
+    }
+  }
+
+  private static String normalize(String email) {
+    return email.trim().toLowerCase(Locale.ROOT);
+  }
+}
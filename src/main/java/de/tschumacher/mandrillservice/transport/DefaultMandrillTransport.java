@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.JsonParseException;
+import com.microtripit.mandrillapp.lutung.MandrillApi;
+import com.microtripit.mandrillapp.lutung.model.HandleResponseException;
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError.MandrillError;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+import de.tschumacher.mandrillservice.metrics.MandrillServiceMetrics;
+
+/**
+ * Writes the request with {@link MandrillJsonWriter} instead of lutung's reflective Gson pass and
+ * sends it over a pool of keep-alive connections configured by {@link MandrillServiceConfig}.
+ */
+public class DefaultMandrillTransport implements MandrillTransport {
+
+  private final String rootUrl;
+  private final String key;
+  private final CloseableHttpClient httpClient;
+  private final MandrillServiceMetrics metrics;
+
+  public DefaultMandrillTransport(MandrillServiceConfig config) {
+    this.rootUrl = config.getApiRootUrl() != null ? config.getApiRootUrl() : MandrillApi.rootUrl;
+    this.key = config.getMandrillKey();
+    this.httpClient = createHttpClient(config);
+    this.metrics = config.getMetrics() != null ? config.getMetrics() : MandrillServiceMetrics.noOp();
+  }
+
+  @Override
+  public MandrillMessageStatus[] sendTemplate(String templateName, MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) throws MandrillApiError, IOException {
+    final SendTemplateRequest request =
+        new SendTemplateRequest(this.rootUrl, this.key, templateName, message, streamedAttachments);
+
+    try (CloseableHttpResponse response = this.httpClient.execute(request.getRequest())) {
+      final String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+      final StatusLine statusLine = response.getStatusLine();
+      if (request.validateResponseStatus(statusLine.getStatusCode())) {
+        return request.handleResponse(body);
+      }
+      throw createError(statusLine, body);
+    } catch (HandleResponseException e) {
+      throw new IOException("Failed to parse response from request '" + request.getUrl() + "'", e);
+    } finally {
+      this.metrics.recordBytesSent(templateName, request.getBytesWritten());
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.httpClient.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+
+  private static MandrillApiError createError(StatusLine statusLine, String body) {
+    MandrillError error;
+    try {
+      error = LutungGsonUtils.getGson().fromJson(body, MandrillError.class);
+    } catch (JsonParseException e) {
+      error = null;
+    }
+    if (error == null) {
+      error = new MandrillError("Invalid Error Format", "Invalid Error Format", body,
+          statusLine.getStatusCode());
+    }
+    return new HttpMandrillApiError("Unexpected http status in response: "
+        + statusLine.getStatusCode() + " (" + statusLine.getReasonPhrase() + ")", error);
+  }
+
+  private static CloseableHttpClient createHttpClient(MandrillServiceConfig config) {
+    final PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(config.getMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+    final RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(config.getConnectTimeoutMillis())
+        .setConnectionRequestTimeout(config.getConnectTimeoutMillis())
+        .setSocketTimeout(config.getReadTimeoutMillis())
+        .build();
+
+    final HttpClientBuilder builder = HttpClients.custom()
+        .useSystemProperties()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections();
+    if (config.getIdleConnectionTimeoutMillis() > 0) {
+      builder.evictIdleConnections(config.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+    return builder.build();
+  }
+
+}
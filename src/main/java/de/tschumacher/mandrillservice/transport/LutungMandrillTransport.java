@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.microtripit.mandrillapp.lutung.MandrillApi;
+import com.microtripit.mandrillapp.lutung.controller.MandrillMessagesApi;
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+import com.microtripit.mandrillapp.lutung.model.MandrillRequestDispatcher;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+import de.tschumacher.mandrillservice.metrics.MandrillServiceMetrics;
+
+/**
+ * Sends through lutung's {@link MandrillMessagesApi}. Messages with streamed attachments fall back
+ * to {@link SendTemplateRequest}, which lutung cannot build. Only these report
+ * {@link MandrillServiceMetrics#recordBytesSent}, as lutung does not expose the size of its
+ * requests.
+ */
+public class LutungMandrillTransport implements MandrillTransport {
+
+  private final MandrillApi mandrillApi;
+  private final MandrillMessagesApi messagesApi;
+  private final MandrillServiceMetrics metrics;
+
+  public LutungMandrillTransport(MandrillApi mandrillApi) {
+    this(mandrillApi, null);
+  }
+
+  public LutungMandrillTransport(MandrillApi mandrillApi, MandrillServiceMetrics metrics) {
+    this.mandrillApi = mandrillApi;
+    this.messagesApi = mandrillApi.messages();
+    this.metrics = metrics != null ? metrics : MandrillServiceMetrics.noOp();
+  }
+
+  @Override
+  public MandrillMessageStatus[] sendTemplate(String templateName, MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) throws MandrillApiError, IOException {
+    if (streamedAttachments.isEmpty()) {
+      return this.messagesApi.sendTemplate(templateName, null, message, false);
+    }
+    final SendTemplateRequest request = new SendTemplateRequest(this.mandrillApi.getKey(),
+        templateName, message, streamedAttachments);
+    try {
+      return MandrillRequestDispatcher.execute(request);
+    } finally {
+      this.metrics.recordBytesSent(templateName, request.getBytesWritten());
+    }
+  }
+
+}
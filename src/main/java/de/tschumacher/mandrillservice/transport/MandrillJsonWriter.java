@@ -0,0 +1,437 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVar;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVarBucket;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MessageContent;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.RecipientMetadata;
+
+import de.tschumacher.mandrillservice.attachment.StreamingBase64Encoder;
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+
+/**
+ * Writes the messages/send-template payload as UTF-8 JSON without building an intermediate tree
+ * or String. Output is the same as lutung's Gson serialisation: null fields are omitted and
+ * recipient types are lower case. Null map values, on which lutung fails, are omitted too.
+ * Writers and their buffers are pooled rather than kept per thread, so virtual threads reuse them
+ * as well, see {@link #acquire(OutputStream)}.
+ */
+public final class MandrillJsonWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final int POOL_SIZE = 64;
+  private static final BlockingQueue<MandrillJsonWriter> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private OutputStream out;
+  private boolean needsComma;
+  private boolean afterName;
+
+  private MandrillJsonWriter() {}
+
+  /**
+   * Takes a writer from the pool, or creates one if the pool is empty. The writer goes back to the
+   * pool once {@link #writeSendTemplate} returns, so it writes only one payload.
+   */
+  public static MandrillJsonWriter acquire(OutputStream out) {
+    MandrillJsonWriter writer = POOL.poll();
+    if (writer == null) {
+      writer = new MandrillJsonWriter();
+    }
+    writer.out = out;
+    writer.position = 0;
+    writer.needsComma = false;
+    writer.afterName = false;
+    return writer;
+  }
+
+  public void writeSendTemplate(String key, String templateName, MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) throws IOException {
+    try {
+      beginObject();
+      name("key").value(key);
+      name("template_name").value(templateName);
+      name("template_content").beginArray().beginObject()
+          .name("name").value("satisfy_validation")
+          .name("content").value("")
+          .endObject().endArray();
+      name("async").value(false);
+      name("message");
+      writeMessage(message, streamedAttachments);
+      endObject();
+      flush();
+    } finally {
+      this.out = null;
+      POOL.offer(this);
+    }
+  }
+
+  private void writeMessage(MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) throws IOException {
+    beginObject();
+    field("subject", message.getSubject());
+    field("html", message.getHtml());
+    field("text", message.getText());
+    field("from_email", message.getFromEmail());
+    field("from_name", message.getFromName());
+    if (message.getTo() != null) {
+      name("to").beginArray();
+      for (final Recipient recipient : message.getTo()) {
+        beginObject();
+        field("email", recipient.getEmail());
+        field("name", recipient.getName());
+        if (recipient.getType() != null) {
+          field("type", recipient.getType().name().toLowerCase());
+        }
+        endObject();
+      }
+      endArray();
+    }
+    field("headers", message.getHeaders());
+    field("important", message.getImportant());
+    field("track_opens", message.getTrackOpens());
+    field("track_clicks", message.getTrackClicks());
+    field("auto_text", message.getAutoText());
+    field("auto_html", message.getAutoHtml());
+    field("inline_css", message.getInlineCss());
+    field("url_strip_qs", message.getUrlStripQs());
+    field("preserve_recipients", message.getPreserveRecipients());
+    field("view_content_link", message.getViewContentLink());
+    field("bcc_address", message.getBcc());
+    field("tracking_domain", message.getTrackingDomain());
+    field("signing_domain", message.getSigningDomain());
+    field("return_path_domain", message.getReturnPathDomain());
+    field("merge", message.getMerge());
+    field("merge_language", message.getMergeLanguage());
+    if (message.getGlobalMergeVars() != null) {
+      name("global_merge_vars");
+      writeMergeVars(message.getGlobalMergeVars());
+    }
+    if (message.getMergeVars() != null) {
+      name("merge_vars").beginArray();
+      for (final MergeVarBucket bucket : message.getMergeVars()) {
+        beginObject();
+        field("rcpt", bucket.getRcpt());
+        if (bucket.getVars() != null) {
+          name("vars").beginArray();
+          for (final MergeVar mergeVar : bucket.getVars()) {
+            writeMergeVar(mergeVar);
+          }
+          endArray();
+        }
+        endObject();
+      }
+      endArray();
+    }
+    field("tags", message.getTags());
+    field("subaccount", message.getSubaccount());
+    field("google_analytics_domains", message.getGoogleAnalyticsDomains());
+    field("google_analytics_campaign", message.getGoogleAnalyticsCampaign());
+    field("metadata", message.getMetadata());
+    if (message.getRecipientMetadata() != null) {
+      name("recipient_metadata").beginArray();
+      for (final RecipientMetadata metadata : message.getRecipientMetadata()) {
+        beginObject();
+        field("rcpt", metadata.getRcpt());
+        field("values", metadata.getValues());
+        endObject();
+      }
+      endArray();
+    }
+    if (message.getAttachments() != null || !streamedAttachments.isEmpty()) {
+      name("attachments").beginArray();
+      if (message.getAttachments() != null) {
+        for (final MessageContent attachment : message.getAttachments()) {
+          writeMessageContent(attachment);
+        }
+      }
+      for (final MandrillServiceAttachment attachment : streamedAttachments) {
+        writeStreamedAttachment(attachment);
+      }
+      endArray();
+    }
+    if (message.getImages() != null) {
+      name("images").beginArray();
+      for (final MessageContent image : message.getImages()) {
+        writeMessageContent(image);
+      }
+      endArray();
+    }
+    endObject();
+  }
+
+  private void writeMergeVars(List<MergeVar> mergeVars) throws IOException {
+    beginArray();
+    for (final MergeVar mergeVar : mergeVars) {
+      writeMergeVar(mergeVar);
+    }
+    endArray();
+  }
+
+  private void writeMergeVar(MergeVar mergeVar) throws IOException {
+    beginObject();
+    field("name", mergeVar.getName());
+    final Object content = mergeVar.getContent();
+    if (content instanceof String) {
+      name("content").value((String) content);
+    } else if (content instanceof Boolean) {
+      name("content").value(((Boolean) content).booleanValue());
+    } else if (content instanceof Number) {
+      name("content").rawValue(content.toString());
+    } else if (content != null) {
+      name("content").rawValue(LutungGsonUtils.getGson().toJson(content));
+    }
+    endObject();
+  }
+
+  private void writeMessageContent(MessageContent content) throws IOException {
+    beginObject();
+    field("name", content.getName());
+    field("type", content.getType());
+    field("content", content.getContent());
+    field("binary", content.isBinary());
+    endObject();
+  }
+
+  private void writeStreamedAttachment(MandrillServiceAttachment attachment) throws IOException {
+    beginObject();
+    field("name", attachment.getName());
+    field("type", attachment.getType());
+    name("content");
+    beforeValue();
+    writeByte('"');
+    flush();
+    if (attachment.getFile() != null) {
+      StreamingBase64Encoder.encode(attachment.getFile(), this.out);
+    } else {
+      try (InputStream in = attachment.openStream()) {
+        StreamingBase64Encoder.encode(in, this.out);
+      }
+    }
+    writeByte('"');
+    this.needsComma = true;
+    field("binary", Boolean.TRUE);
+    endObject();
+  }
+
+  private void field(String name, String value) throws IOException {
+    if (value != null) {
+      name(name).value(value);
+    }
+  }
+
+  private void field(String name, Boolean value) throws IOException {
+    if (value != null) {
+      name(name).value(value.booleanValue());
+    }
+  }
+
+  private void field(String name, List<String> values) throws IOException {
+    if (values != null) {
+      name(name).beginArray();
+      for (final String value : values) {
+        value(value);
+      }
+      endArray();
+    }
+  }
+
+  private void field(String name, Map<String, String> values) throws IOException {
+    if (values != null) {
+      name(name).beginObject();
+      for (final Map.Entry<String, String> entry : values.entrySet()) {
+        // lutung's Gson fails on null map values, Mandrill gets the map without them
+        field(entry.getKey(), entry.getValue());
+      }
+      endObject();
+    }
+  }
+
+  private MandrillJsonWriter beginObject() throws IOException {
+    beforeValue();
+    writeByte('{');
+    this.needsComma = false;
+    return this;
+  }
+
+  private MandrillJsonWriter endObject() throws IOException {
+    writeByte('}');
+    this.needsComma = true;
+    return this;
+  }
+
+  private MandrillJsonWriter beginArray() throws IOException {
+    beforeValue();
+    writeByte('[');
+    this.needsComma = false;
+    return this;
+  }
+
+  private MandrillJsonWriter endArray() throws IOException {
+    writeByte(']');
+    this.needsComma = true;
+    return this;
+  }
+
+  private MandrillJsonWriter name(String name) throws IOException {
+    if (this.needsComma) {
+      writeByte(',');
+    }
+    writeString(name);
+    writeByte(':');
+    this.afterName = true;
+    return this;
+  }
+
+  private MandrillJsonWriter value(String value) throws IOException {
+    beforeValue();
+    if (value == null) {
+      writeAscii("null");
+    } else {
+      writeString(value);
+    }
+    this.needsComma = true;
+    return this;
+  }
+
+  private MandrillJsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    writeAscii(value ? "true" : "false");
+    this.needsComma = true;
+    return this;
+  }
+
+  private MandrillJsonWriter rawValue(String json) throws IOException {
+    beforeValue();
+    writeUtf8(json, false);
+    this.needsComma = true;
+    return this;
+  }
+
+  private void beforeValue() throws IOException {
+    if (!this.afterName && this.needsComma) {
+      writeByte(',');
+    }
+    this.afterName = false;
+  }
+
+  private void writeString(String value) throws IOException {
+    writeByte('"');
+    writeUtf8(value, true);
+    writeByte('"');
+  }
+
+  private void writeUtf8(String value, boolean escape) throws IOException {
+    final int length = value.length();
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        if (escape && (c < 0x20 || c == '"' || c == '\\')) {
+          writeEscaped(c);
+        } else {
+          writeByte(c);
+        }
+      } else if (c < 0x800) {
+        ensureCapacity(2);
+        this.buffer[this.position++] = (byte) (0xc0 | (c >> 6));
+        this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        ensureCapacity(4);
+        this.buffer[this.position++] = (byte) (0xf0 | (codePoint >> 18));
+        this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        writeByte('?');
+      } else {
+        ensureCapacity(3);
+        this.buffer[this.position++] = (byte) (0xe0 | (c >> 12));
+        this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  private void writeEscaped(char c) throws IOException {
+    switch (c) {
+      case '"':
+        writeAscii("\\\"");
+        break;
+      case '\\':
+        writeAscii("\\\\");
+        break;
+      case '\n':
+        writeAscii("\\n");
+        break;
+      case '\r':
+        writeAscii("\\r");
+        break;
+      case '\t':
+        writeAscii("\\t");
+        break;
+      case '\b':
+        writeAscii("\\b");
+        break;
+      case '\f':
+        writeAscii("\\f");
+        break;
+      default:
+        writeAscii("\\u00");
+        writeByte(HEX[c >> 4]);
+        writeByte(HEX[c & 0xf]);
+    }
+  }
+
+  private void writeAscii(String value) throws IOException {
+    final int length = value.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      this.buffer[this.position++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void writeByte(int b) throws IOException {
+    ensureCapacity(1);
+    this.buffer[this.position++] = (byte) b;
+  }
+
+  private void ensureCapacity(int bytes) throws IOException {
+    if (this.position + bytes > this.buffer.length) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    if (this.position > 0) {
+      this.out.write(this.buffer, 0, this.position);
+      this.position = 0;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+
+/**
+ * Sends a prepared message to the Mandrill API.
+ */
+public interface MandrillTransport extends AutoCloseable {
+
+  /**
+   * @param streamedAttachments file attachments to stream into the request in addition to the
+   *        attachments already held by the message, never null
+   */
+  MandrillMessageStatus[] sendTemplate(String templateName, MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) throws MandrillApiError, IOException;
+
+  /**
+   * Releases connections held by the transport.
+   */
+  @Override
+  default void close() {}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.gson.JsonParseException;
+import com.microtripit.mandrillapp.lutung.MandrillApi;
+import com.microtripit.mandrillapp.lutung.model.HandleResponseException;
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.model.RequestModel;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+
+/**
+ * messages/send-template request whose body is written by {@link MandrillJsonWriter}. The given file
+ * attachments go straight from disk into the request body instead of holding their Base64 content
+ * in the {@link MandrillMessage}.
+ */
+public class SendTemplateRequest implements RequestModel<MandrillMessageStatus[]> {
+
+  private static final String PATH = "messages/send-template.json";
+
+  private final String url;
+  private final String key;
+  private final String templateName;
+  private final MandrillMessage message;
+  private final List<MandrillServiceAttachment> streamedAttachments;
+  private volatile long bytesWritten;
+
+  public SendTemplateRequest(String key, String templateName, MandrillMessage message,
+      List<MandrillServiceAttachment> streamedAttachments) {
+    this(MandrillApi.rootUrl, key, templateName, message, streamedAttachments);
+  }
+
+  public SendTemplateRequest(String rootUrl, String key, String templateName,
+      MandrillMessage message, List<MandrillServiceAttachment> streamedAttachments) {
+    this.url = rootUrl + PATH;
+    this.key = key;
+    this.templateName = templateName;
+    this.message = message;
+    this.streamedAttachments = streamedAttachments;
+  }
+
+  /**
+   * @return size of the body written last, 0 before it was written
+   */
+  public long getBytesWritten() {
+    return this.bytesWritten;
+  }
+
+  @Override
+  public String getUrl() {
+    return this.url;
+  }
+
+  @Override
+  public HttpRequestBase getRequest() throws IOException {
+    final HttpPost post = new HttpPost(this.url);
+    post.setEntity(new PayloadEntity());
+    return post;
+  }
+
+  @Override
+  public boolean validateResponseStatus(int httpResponseStatus) {
+    return httpResponseStatus == 200;
+  }
+
+  @Override
+  public MandrillMessageStatus[] handleResponse(String raw) throws HandleResponseException {
+    try {
+      return LutungGsonUtils.getGson().fromJson(raw, MandrillMessageStatus[].class);
+    } catch (JsonParseException e) {
+      throw new HandleResponseException("Error handling Mandrill response: '" + raw + "'", e);
+    }
+  }
+
+  private void writePayload(OutputStream out) throws IOException {
+    final CountingOutputStream counting = new CountingOutputStream(out);
+    try {
+      MandrillJsonWriter.acquire(counting).writeSendTemplate(this.key, this.templateName,
+          this.message, this.streamedAttachments);
+    } finally {
+      this.bytesWritten = counting.getCount();
+    }
+  }
+
+  private boolean hasRepeatableAttachments() {
+    for (final MandrillServiceAttachment attachment : this.streamedAttachments) {
+      if (attachment.getPath() == null && attachment.getContent() == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private class PayloadEntity extends AbstractHttpEntity {
+
+    PayloadEntity() {
+      setContentType(ContentType.APPLICATION_JSON.toString());
+      setChunked(true);
+    }
+
+    /**
+     * @return false if an attachment comes from a supplier, whose stream may not open twice
+     */
+    @Override
+    public boolean isRepeatable() {
+      return hasRepeatableAttachments();
+    }
+
+    @Override
+    public long getContentLength() {
+      return -1;
+    }
+
+    /**
+     * The client only calls {@link #writeTo}, this buffers the whole body for anyone else.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writePayload(out);
+      return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      writePayload(out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+}
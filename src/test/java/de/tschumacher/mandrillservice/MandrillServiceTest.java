@@ -13,13 +13,22 @@
  */
 package de.tschumacher.mandrillservice;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import de.tschumacher.mandrillservice.domain.Recipient;
 import org.junit.After;
@@ -30,14 +39,24 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 
+import com.google.gson.JsonObject;
 import com.microtripit.mandrillapp.lutung.MandrillApi;
 import com.microtripit.mandrillapp.lutung.controller.MandrillMessagesApi;
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
 import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
 import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVar;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
 
 import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
 import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
 import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.MessagePrototype;
+import de.tschumacher.mandrillservice.domain.RecipientStatus;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.transport.LutungMandrillTransport;
+import de.tschumacher.mandrillservice.transport.MandrillTransport;
 
 
 public class MandrillServiceTest {
@@ -45,6 +64,7 @@ public class MandrillServiceTest {
   private MandrillMessagesApi messageApi = null;
   private MandrillService service = null;
   private MandrillServiceConfig config;
+  private MandrillTransport transport;
 
   @Before
   public void setUp() {
@@ -52,7 +72,14 @@ public class MandrillServiceTest {
     this.messageApi = Mockito.mock(MandrillMessagesApi.class);
     this.api = Mockito.mock(MandrillApi.class);
     Mockito.when(this.api.messages()).thenReturn(this.messageApi);
-    this.service = new DefaultMandrillService(this.config, this.api);
+    this.transport = new LutungMandrillTransport(this.api);
+    this.service = new DefaultMandrillService(this.config, this.transport);
+  }
+
+  // the service reads the debug routing rules when it is built
+  private void useDebugRegex(String debugRegex) {
+    Mockito.when(this.config.getDebugRegex()).thenReturn(debugRegex);
+    this.service = new DefaultMandrillService(this.config, this.transport);
   }
 
   @After
@@ -197,7 +224,7 @@ public class MandrillServiceTest {
   @Test
   public void shouldUseDefinedRecipientsDebug() throws IOException, MandrillApiError {
     Mockito.when(this.config.isDebug()).thenReturn(true);
-    Mockito.when(this.config.getDebugRegex()).thenReturn(".*@example.com|.*@google.com");
+    useDebugRegex(".*@example.com|.*@google.com");
     Mockito.when(this.config.getDebugMail()).thenReturn("debug@test.com");
 
     String firstExpectedEmailAddress = "test+recipient1@example.com";
@@ -266,7 +293,7 @@ public class MandrillServiceTest {
   @Test
   public void shouldUseDefinedEmailsDebug() throws IOException, MandrillApiError {
     Mockito.when(this.config.isDebug()).thenReturn(true);
-    Mockito.when(this.config.getDebugRegex()).thenReturn(".*@example.com|.*@google.com");
+    useDebugRegex(".*@example.com|.*@google.com");
     Mockito.when(this.config.getDebugMail()).thenReturn("debug@test.com");
 
     String firstExpectedEmailAddress = "test+recipient1@example.com";
@@ -370,6 +397,34 @@ public class MandrillServiceTest {
     Assert.assertEquals(expectedContent, mergeVar.getContent());
   }
 
+  @Test
+  public void sendMessageWithRecipientReplacementsTest() throws MandrillApiError, IOException {
+    final Map<String, Map<String, String>> recipientReplacements = new HashMap<>();
+    recipientReplacements.put("email", Collections.singletonMap("name", "content"));
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .withRecipientReplacements(recipientReplacements)
+            .build();
+    this.service.sendMail(message);
+
+    ArgumentCaptor<MandrillMessage> captor = ArgumentCaptor.forClass(MandrillMessage.class);
+
+    Mockito.verify(this.messageApi, Mockito.times(1)).sendTemplate(
+        Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class),
+        captor.capture(),
+        Matchers.eq(false));
+
+    MandrillMessage.MergeVarBucket bucket = captor.getValue().getMergeVars().get(0);
+
+    Assert.assertEquals("email", bucket.getRcpt());
+    Assert.assertEquals("name", bucket.getVars()[0].getName());
+    Assert.assertEquals("content", bucket.getVars()[0].getContent());
+  }
+
 
   @Test
   public void sendMessageWithAttachmentsTest() throws MandrillApiError, IOException {
@@ -409,4 +464,249 @@ public class MandrillServiceTest {
     Assert.assertEquals(expectedType, firstAttachment.getType());
   }
 
+  @Test
+  public void sendMessageWithInMemoryAttachmentsTest() throws MandrillApiError, IOException {
+    final byte[] content = "test".getBytes(StandardCharsets.UTF_8);
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .withAttachments(Arrays.asList(
+                MandrillServiceAttachment.newBuilder().withName("bytes").withType("Type")
+                    .withContent(content).build(),
+                MandrillServiceAttachment.newBuilder().withName("supplied").withType("Type")
+                    .withContentSupplier(() -> new ByteArrayInputStream(content)).build(),
+                MandrillServiceAttachment.newBuilder().withName("path").withType("Type")
+                    .withPath(Paths.get("src/test/resources/test.txt")).build()))
+            .build();
+    this.service.sendMail(message);
+
+    ArgumentCaptor<MandrillMessage> captor = ArgumentCaptor.forClass(MandrillMessage.class);
+
+    Mockito.verify(this.messageApi, Mockito.times(1)).sendTemplate(
+        Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class),
+        captor.capture(),
+        Matchers.eq(false)
+    );
+
+    final List<MandrillMessage.MessageContent> actualAttachments =
+        captor.getValue().getAttachments();
+    Assert.assertEquals(3, actualAttachments.size());
+    for (final MandrillMessage.MessageContent attachment : actualAttachments) {
+      Assert.assertEquals("dGVzdA==", attachment.getContent());
+    }
+  }
+
+  @Test
+  public void shouldSendMailAsync() throws Exception {
+    Mockito.when(this.config.getAsyncThreads()).thenReturn(1);
+    Mockito.when(this.config.getAsyncQueueSize()).thenReturn(1);
+
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .build();
+    this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+    this.service.close();
+
+    Mockito.verify(this.messageApi, Mockito.times(1)).sendTemplate(
+        Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class),
+        Matchers.any(MandrillMessage.class),
+        Matchers.eq(false)
+    );
+  }
+
+  @Test
+  public void shouldFailAsyncSendAfterClose() throws Exception {
+    Mockito.when(this.config.getAsyncThreads()).thenReturn(1);
+    Mockito.when(this.config.getAsyncQueueSize()).thenReturn(1);
+    Mockito.when(this.config.getAsyncRejectionPolicy())
+        .thenReturn(MandrillServiceConfig.RejectionPolicy.CALLER_RUNS);
+
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .build();
+    this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+    this.service.close();
+
+    try {
+      this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof MandrillServiceException);
+    }
+    Mockito.verify(this.messageApi, Mockito.times(1)).sendTemplate(
+        Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class),
+        Matchers.any(MandrillMessage.class),
+        Matchers.eq(false)
+    );
+  }
+
+  @Test
+  public void shouldFailAsyncSendWhenClosedBeforeFirstSend() throws Exception {
+    Mockito.when(this.config.getAsyncThreadMode())
+        .thenReturn(MandrillServiceConfig.ThreadMode.VIRTUAL);
+    Mockito.when(this.config.getAsyncThreads()).thenReturn(1);
+    Mockito.when(this.config.getAsyncQueueSize()).thenReturn(1);
+    this.service.close();
+
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .build();
+    try {
+      this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof MandrillServiceException);
+      Assert.assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+    }
+    Mockito.verifyZeroInteractions(this.messageApi);
+  }
+
+  @Test
+  public void shouldSendMailAsyncOnVirtualThreadsOrFallBack() throws Exception {
+    Mockito.when(this.config.getAsyncThreadMode())
+        .thenReturn(MandrillServiceConfig.ThreadMode.VIRTUAL);
+    Mockito.when(this.config.getAsyncThreads()).thenReturn(1);
+    Mockito.when(this.config.getAsyncQueueSize()).thenReturn(1);
+
+    final AtomicReference<Thread> sender = new AtomicReference<>();
+    Mockito.when(this.messageApi.sendTemplate(Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class), Matchers.any(MandrillMessage.class),
+        Matchers.eq(false))).thenAnswer(invocation -> {
+          sender.set(Thread.currentThread());
+          return new MandrillMessageStatus[0];
+        });
+
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmail("email")
+            .withSubject("subject")
+            .withTemplate("template")
+            .build();
+    this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+    this.service.close();
+
+    Mockito.verify(this.messageApi, Mockito.times(1)).sendTemplate(
+        Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class),
+        Matchers.any(MandrillMessage.class),
+        Matchers.eq(false)
+    );
+    Assert.assertTrue(sender.get().getName().startsWith("mandrill-dispatch-"));
+    Assert.assertEquals(hasVirtualThreads(), isVirtual(sender.get()));
+  }
+
+  // the Java 21 classes are only picked up from the multi-release jar
+  private static boolean hasVirtualThreads() {
+    final ExecutorService executor = VirtualThreads.newExecutor("probe-");
+    if (executor == null) {
+      return false;
+    }
+    executor.shutdown();
+    return true;
+  }
+
+  private static boolean isVirtual(Thread thread) throws Exception {
+    try {
+      return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  @Test
+  public void shouldReturnStatusOfEveryRecipient() throws MandrillApiError, IOException {
+    Mockito.when(this.messageApi.sendTemplate(Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class), Matchers.any(MandrillMessage.class),
+        Matchers.eq(false))).thenReturn(new MandrillMessageStatus[] {
+            status("first@example.com", "sent", "id1", null),
+            status("second@example.com", "rejected", "id2", "hard-bounce")});
+
+    final MandrillServiceMessage message =
+        MandrillServiceMessage.newBuilder()
+            .withEmails(Arrays.asList("first@example.com", "second@example.com"))
+            .withSubject("subject")
+            .withTemplate("template")
+            .build();
+    final SendResult result = this.service.sendMailWithResult(message);
+
+    Assert.assertEquals(2, result.getRecipients().size());
+    Assert.assertFalse(result.isAccepted());
+    final RecipientStatus first = result.getRecipient("first@example.com");
+    Assert.assertEquals(RecipientStatus.Status.SENT, first.getStatus());
+    Assert.assertEquals("id1", first.getMessageId());
+    final RecipientStatus second = result.getRecipient("second@example.com");
+    Assert.assertEquals(RecipientStatus.Status.REJECTED, second.getStatus());
+    Assert.assertEquals("hard-bounce", second.getRejectReason());
+  }
+
+  @Test
+  public void shouldApplyRegisteredPrototype() throws MandrillApiError, IOException {
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("X-Campaign", "welcome");
+    headers.put("Reply-To", "support@example.com");
+    final Map<String, String> staticReplacements = new HashMap<>();
+    staticReplacements.put("brand", "Example");
+    staticReplacements.put("footer", "default footer");
+    final MessagePrototype prototype = MessagePrototype.newBuilder().withTemplate("template")
+        .withFromEmail("news@example.com").withSubject("Welcome").withHeaders(headers)
+        .withReplacements(staticReplacements).build();
+    ((DefaultMandrillService) this.service).registerPrototype(prototype);
+
+    final Map<String, String> replacements = new HashMap<>();
+    replacements.put("footer", "custom footer");
+    replacements.put("name", "Jane");
+    this.service.sendMail(MandrillServiceMessage.newBuilder().withEmail("first@example.com")
+        .withTemplate("template").withReplacements(replacements)
+        .withHeaders(Collections.singletonMap("Reply-To", "sales@example.com")).build());
+    this.service.sendMail(MandrillServiceMessage.newBuilder().withEmail("second@example.com")
+        .withTemplate("template").withSubject("Hello").build());
+
+    final ArgumentCaptor<MandrillMessage> captor = ArgumentCaptor.forClass(MandrillMessage.class);
+    Mockito.verify(this.messageApi, Mockito.times(2)).sendTemplate(Matchers.eq("template"),
+        Matchers.anyMapOf(String.class, String.class), captor.capture(), Matchers.eq(false));
+
+    final MandrillMessage first = captor.getAllValues().get(0);
+    Assert.assertEquals("news@example.com", first.getFromEmail());
+    Assert.assertEquals("Welcome", first.getSubject());
+    Assert.assertEquals("welcome", first.getHeaders().get("X-Campaign"));
+    Assert.assertEquals("sales@example.com", first.getHeaders().get("Reply-To"));
+    final Map<String, Object> mergeVars = new HashMap<>();
+    for (final MergeVar mergeVar : first.getGlobalMergeVars()) {
+      Assert.assertNull(mergeVars.put(mergeVar.getName(), mergeVar.getContent()));
+    }
+    Assert.assertEquals(3, mergeVars.size());
+    Assert.assertEquals("Example", mergeVars.get("brand"));
+    Assert.assertEquals("custom footer", mergeVars.get("footer"));
+    Assert.assertEquals("Jane", mergeVars.get("name"));
+
+    final MandrillMessage second = captor.getAllValues().get(1);
+    Assert.assertEquals("Hello", second.getSubject());
+    Assert.assertSame(prototype.getHeaders(), second.getHeaders());
+    Assert.assertSame(prototype.getMergeVars(), second.getGlobalMergeVars());
+  }
+
+  private static MandrillMessageStatus status(String email, String status, String id,
+      String rejectReason) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("email", email);
+    json.addProperty("status", status);
+    json.addProperty("_id", id);
+    json.addProperty("reject_reason", rejectReason);
+    return LutungGsonUtils.getGson().fromJson(json, MandrillMessageStatus.class);
+  }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class AttachmentCacheTest {
+
+  private final File file = new File("src/test/resources/test.txt");
+
+  @Test
+  public void shouldEncodeFileOnlyOnce() throws IOException {
+    final AttachmentCache cache = new AttachmentCache(1024);
+    final AtomicInteger encodings = new AtomicInteger();
+
+    Assert.assertEquals("dGVzdA==", cache.get(this.file, () -> {
+      encodings.incrementAndGet();
+      return "dGVzdA==";
+    }));
+    Assert.assertEquals("dGVzdA==", cache.get(this.file, () -> {
+      encodings.incrementAndGet();
+      return "dGVzdA==";
+    }));
+
+    Assert.assertEquals(1, encodings.get());
+    Assert.assertEquals(1, cache.stats().hitCount());
+    Assert.assertEquals(1, cache.stats().missCount());
+  }
+
+  @Test
+  public void shouldNotKeepContentLargerThanMaxBytes() throws IOException {
+    final AttachmentCache cache = new AttachmentCache(4);
+
+    cache.get(this.file, () -> "dGVzdA==");
+    cache.get(this.file, () -> "dGVzdA==");
+
+    Assert.assertEquals(0, cache.stats().hitCount());
+    Assert.assertEquals(2, cache.stats().missCount());
+  }
+
+  @Test
+  public void shouldKeepContentUpToMaxBytes() throws IOException {
+    // large enough for Guava to split the cache into segments unless told otherwise
+    final AttachmentCache cache = new AttachmentCache(1000);
+    final String content = Strings.repeat("A", 900);
+
+    cache.get(this.file, () -> content);
+    cache.get(this.file, () -> content);
+
+    Assert.assertEquals(1, cache.stats().hitCount());
+    Assert.assertEquals(1, cache.stats().missCount());
+  }
+
+}
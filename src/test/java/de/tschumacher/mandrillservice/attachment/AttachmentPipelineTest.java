@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.attachment;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.RecipientStatus.Status;
+import de.tschumacher.mandrillservice.domain.SendResult;
+
+public class AttachmentPipelineTest {
+
+  @Test
+  public void shouldLimitPreparedMessagesToPrefetchDepth() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    try (AttachmentPipeline pipeline = new AttachmentPipeline(1, 2)) {
+      final CompletableFuture<String> first = pipeline.tryPrepare(() -> "first");
+      final CompletableFuture<String> second = pipeline.tryPrepare(() -> {
+        blocked.await();
+        return "second";
+      });
+      Assert.assertEquals("first", first.get(5, TimeUnit.SECONDS));
+      Assert.assertNull(pipeline.tryPrepare(() -> "third"));
+      Assert.assertEquals(2, pipeline.getPrepared());
+
+      pipeline.release();
+      final CompletableFuture<String> third = pipeline.tryPrepare(() -> "third");
+      Assert.assertNotNull(third);
+      blocked.countDown();
+      Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+      Assert.assertEquals("third", third.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void shouldEncodeAttachmentsOnIoPoolWhenPrefetching() throws Exception {
+    final AtomicReference<String> readBy = new AtomicReference<>();
+    final AtomicReference<String> sentContent = new AtomicReference<>();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder()
+        .withAsyncThreads(1).withAsyncQueueSize(10).withAttachmentPrefetch(4).build();
+    final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+        .withEmail("email@example.com").withTemplate("template")
+        .withAttachments(Collections.singletonList(MandrillServiceAttachment.newBuilder()
+            .withName("invoice.txt").withType("text/plain")
+            .withContentSupplier(() -> {
+              readBy.set(Thread.currentThread().getName());
+              return new ByteArrayInputStream("test".getBytes(StandardCharsets.UTF_8));
+            }).build()))
+        .build();
+
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, mandrillMessage, streamed) -> {
+          sentContent.set(mandrillMessage.getAttachments().get(0).getContent());
+          return new MandrillMessageStatus[0];
+        })) {
+      service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+    }
+
+    Assert.assertTrue(readBy.get(), readBy.get().startsWith("mandrill-attachment-io-"));
+    Assert.assertEquals("dGVzdA==", sentContent.get());
+  }
+
+  @Test
+  public void shouldNotPrefetchDuplicateOrSuppressedMessages() throws Exception {
+    final AtomicInteger reads = new AtomicInteger();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder()
+        .withAsyncThreads(1).withAttachmentPrefetch(4)
+        .withSuppressionTtlMillis(TimeUnit.DAYS.toMillis(1)).build();
+    final MandrillServiceAttachment attachment = MandrillServiceAttachment.newBuilder()
+        .withName("invoice.txt").withType("text/plain").withContentSupplier(() -> {
+          reads.incrementAndGet();
+          return new ByteArrayInputStream("test".getBytes(StandardCharsets.UTF_8));
+        }).build();
+
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, mandrillMessage, streamed) -> new MandrillMessageStatus[] {
+            LutungGsonUtils.getGson().fromJson("{\"email\":\"bounced@example.com\","
+                + "\"status\":\"rejected\",\"reject_reason\":\"hard-bounce\"}",
+                MandrillMessageStatus.class)})) {
+      service.sendMailAsync(message("order-1", attachment)).get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(1, reads.get());
+
+      final SendResult duplicate =
+          service.sendMailAsync(message("order-1", attachment)).get(5, TimeUnit.SECONDS);
+      final SendResult suppressed =
+          service.sendMailAsync(message("order-2", attachment)).get(5, TimeUnit.SECONDS);
+
+      Assert.assertTrue(duplicate.isDuplicate());
+      Assert.assertEquals(Status.SUPPRESSED, suppressed.getRecipients().get(0).getStatus());
+      Assert.assertEquals(1, reads.get());
+    }
+  }
+
+  private static MandrillServiceMessage message(String idempotencyKey,
+      MandrillServiceAttachment attachment) {
+    return MandrillServiceMessage.newBuilder().withEmail("bounced@example.com")
+        .withTemplate("template").withIdempotencyKey(idempotencyKey)
+        .withAttachments(Collections.singletonList(attachment)).build();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.RecipientStatus.Status;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.PartialSendException;
+import de.tschumacher.mandrillservice.resilience.MandrillCall;
+
+public class ChunkExecutorTest {
+
+  private final ChunkExecutor executor = new ChunkExecutor(3);
+
+  @After
+  public void afterTest() {
+    this.executor.close();
+  }
+
+  @Test
+  public void shouldRunCallsWithBoundedParallelism() throws Exception {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final List<MandrillCall<Integer>> calls = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      final int index = i;
+      calls.add(() -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        sleep(5);
+        inFlight.decrementAndGet();
+        return index;
+      });
+    }
+
+    final List<ChunkExecutor.Outcome<Integer>> outcomes = this.executor.invokeAllSettled(calls);
+
+    Assert.assertEquals(20, outcomes.size());
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals(Integer.valueOf(i), outcomes.get(i).getValue());
+    }
+    Assert.assertTrue(maxInFlight.get() <= 3);
+    Assert.assertTrue(maxInFlight.get() > 1);
+  }
+
+  @Test
+  public void shouldKeepStatusesOfAcceptedChunksWhenOneFails() {
+    final AtomicInteger sends = new AtomicInteger();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder().withChunkSize(2)
+        .withChunkParallelism(1).withRetryMaxAttempts(1).build();
+    final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+        .withTemplate("template").withIdempotencyKey("newsletter-1")
+        .withEmails(Arrays.asList("a@example.com", "b@example.com", "c@example.com",
+            "d@example.com", "e@example.com", "f@example.com"))
+        .build();
+
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, chunk, streamed) -> {
+          sends.incrementAndGet();
+          if (chunk.getTo().get(0).getEmail().equals("c@example.com")) {
+            throw new IOException("connection reset");
+          }
+          final List<MandrillMessageStatus> statuses = new ArrayList<>();
+          for (final Recipient recipient : chunk.getTo()) {
+            statuses.add(sent(recipient.getEmail()));
+          }
+          return statuses.toArray(new MandrillMessageStatus[0]);
+        })) {
+      final SendResult result;
+      try {
+        service.sendMail(message);
+        Assert.fail("expected PartialSendException");
+        return;
+      } catch (PartialSendException e) {
+        result = e.getResult();
+      }
+
+      Assert.assertEquals(3, sends.get());
+      Assert.assertEquals(6, result.getRecipients().size());
+      Assert.assertFalse(result.isAccepted());
+      Assert.assertEquals(Status.SENT, result.getRecipient("a@example.com").getStatus());
+      Assert.assertEquals(Status.FAILED, result.getRecipient("c@example.com").getStatus());
+      Assert.assertEquals(Status.FAILED, result.getRecipient("d@example.com").getStatus());
+      Assert.assertEquals(Status.SENT, result.getRecipient("f@example.com").getStatus());
+      Assert.assertEquals("connection reset", result.getFailures().get(0).getMessage());
+
+      // a retry of the caller only sends the failed chunk
+      try {
+        service.sendMail(message);
+        Assert.fail("expected PartialSendException");
+      } catch (PartialSendException e) {
+        Assert.assertEquals(2, e.getResult().getRecipients().size());
+      }
+      Assert.assertEquals(4, sends.get());
+    }
+  }
+
+  private static MandrillMessageStatus sent(String email) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("email", email);
+    json.addProperty("status", "sent");
+    return LutungGsonUtils.getGson().fromJson(json, MandrillMessageStatus.class);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.RecipientStatus;
+import de.tschumacher.mandrillservice.domain.SendResult;
+
+public class CoalescingMandrillServiceTest {
+  private MandrillService delegate;
+  private MandrillServiceConfig config;
+  private CoalescingMandrillService service;
+
+  @Before
+  public void setUp() {
+    this.delegate = Mockito.mock(MandrillService.class);
+    this.config = Mockito.mock(MandrillServiceConfig.class);
+    Mockito.when(this.config.getCoalescingWindowMillis()).thenReturn(50L);
+    Mockito.when(this.config.getCoalescingMaxRecipients()).thenReturn(2);
+    Mockito.when(this.delegate.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    this.service = new CoalescingMandrillService(this.delegate, this.config);
+  }
+
+  @After
+  public void afterTest() {
+    this.service.close();
+  }
+
+  @Test
+  public void shouldMergeMessagesWithSameTemplate() throws Exception {
+    final CompletableFuture<SendResult> first =
+        this.service.sendMailAsync(message("first@example.com", "1"));
+    final CompletableFuture<SendResult> second =
+        this.service.sendMailAsync(message("second@example.com", "2"));
+    CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+    final ArgumentCaptor<MandrillServiceMessage> captor =
+        ArgumentCaptor.forClass(MandrillServiceMessage.class);
+    Mockito.verify(this.delegate, Mockito.times(1)).sendMailAsync(captor.capture());
+
+    final MandrillServiceMessage merged = captor.getValue();
+    Assert.assertEquals(2, merged.getRecipients().size());
+    Assert.assertEquals(Boolean.FALSE, merged.getPreserveRecipients());
+    Assert.assertNull(merged.getReplacements());
+    Assert.assertEquals("1", merged.getRecipientReplacements().get("first@example.com").get("id"));
+    Assert.assertEquals("2", merged.getRecipientReplacements().get("second@example.com").get("id"));
+  }
+
+  @Test
+  public void shouldSendSingleMessageAfterWindow() throws Exception {
+    final MandrillServiceMessage message = message("first@example.com", "1");
+
+    this.service.sendMailAsync(message).get(5, TimeUnit.SECONDS);
+
+    Mockito.verify(this.delegate, Mockito.times(1)).sendMailAsync(message);
+  }
+
+  @Test
+  public void shouldSplitResultOfMergedMessage() throws Exception {
+    final SendResult merged = new SendResult(Arrays.asList(
+        new RecipientStatus("first@example.com", RecipientStatus.Status.SENT, "id1", null),
+        new RecipientStatus("second@example.com", RecipientStatus.Status.REJECTED, "id2",
+            "hard-bounce")));
+    Mockito.when(this.delegate.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture(merged));
+
+    final CompletableFuture<SendResult> first =
+        this.service.sendMailAsync(message("first@example.com", "1"));
+    final CompletableFuture<SendResult> second =
+        this.service.sendMailAsync(message("second@example.com", "2"));
+
+    final SendResult firstResult = first.get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(1, firstResult.getRecipients().size());
+    Assert.assertEquals("id1", firstResult.getRecipient("first@example.com").getMessageId());
+    Assert.assertTrue(firstResult.isAccepted());
+    final SendResult secondResult = second.get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(1, secondResult.getRecipients().size());
+    Assert.assertEquals("hard-bounce",
+        secondResult.getRecipient("second@example.com").getRejectReason());
+    Assert.assertFalse(secondResult.isAccepted());
+  }
+
+  private static MandrillServiceMessage message(String email, String id) {
+    return MandrillServiceMessage.newBuilder()
+        .withEmail(email)
+        .withSubject("subject")
+        .withTemplate("template")
+        .withReplacements(Collections.singletonMap("id", id))
+        .build();
+  }
+
+}
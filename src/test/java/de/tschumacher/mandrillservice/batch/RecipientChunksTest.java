@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MergeVarBucket;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.MessageContent;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage.Recipient;
+
+public class RecipientChunksTest {
+
+  @Test
+  public void shouldSplitRecipientsAndShareAttachments() {
+    final MandrillMessage message = message(2500);
+
+    final List<MandrillMessage> chunks = RecipientChunks.split(message, 1000);
+
+    Assert.assertEquals(3, chunks.size());
+    Assert.assertEquals(1000, chunks.get(0).getTo().size());
+    Assert.assertEquals(500, chunks.get(2).getTo().size());
+    Assert.assertEquals("user2000@example.com", chunks.get(2).getTo().get(0).getEmail());
+    for (final MandrillMessage chunk : chunks) {
+      Assert.assertSame(message.getAttachments(), chunk.getAttachments());
+      Assert.assertEquals(message.getSubject(), chunk.getSubject());
+    }
+  }
+
+  @Test
+  public void shouldKeepMergeVarsOfChunkRecipients() {
+    final MandrillMessage message = message(3);
+    final MergeVarBucket bucket = new MergeVarBucket();
+    bucket.setRcpt("user2@example.com");
+    message.setMergeVars(Collections.singletonList(bucket));
+
+    final List<MandrillMessage> chunks = RecipientChunks.split(message, 2);
+
+    Assert.assertTrue(chunks.get(0).getMergeVars().isEmpty());
+    Assert.assertEquals(Collections.singletonList(bucket), chunks.get(1).getMergeVars());
+  }
+
+  @Test
+  public void shouldNotSplitSmallOrPreservedMessages() {
+    final MandrillMessage small = message(10);
+    Assert.assertSame(small, RecipientChunks.split(small, 10).get(0));
+
+    final MandrillMessage preserved = message(100);
+    preserved.setPreserveRecipients(true);
+    Assert.assertEquals(1, RecipientChunks.split(preserved, 10).size());
+  }
+
+  private static MandrillMessage message(int recipientCount) {
+    final List<Recipient> recipients = new ArrayList<>();
+    for (int i = 0; i < recipientCount; i++) {
+      final Recipient recipient = new Recipient();
+      recipient.setEmail("user" + i + "@example.com");
+      recipients.add(recipient);
+    }
+    final MandrillMessage message = new MandrillMessage();
+    message.setSubject("subject");
+    message.setTo(recipients);
+    message.setAttachments(Collections.singletonList(new MessageContent()));
+    return message;
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.campaign;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.Recipient;
+import de.tschumacher.mandrillservice.domain.RecipientStatus;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.exception.PartialSendException;
+
+public class CampaignSenderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<MandrillServiceMessage> sent = new ArrayList<>();
+  private MandrillService service;
+  private CampaignSender sender;
+
+  @Before
+  public void setUp() {
+    this.service = Mockito.mock(MandrillService.class);
+    Mockito.when(this.service.sendMailWithResult(Matchers.any(MandrillServiceMessage.class)))
+        .thenAnswer(invocation -> {
+          this.sent.add((MandrillServiceMessage) invocation.getArguments()[0]);
+          return new SendResult(new ArrayList<>());
+        });
+    this.sender = new CampaignSender(this.service,
+        MandrillServiceConfig.newBuilder().withCampaignBatchSize(2).build());
+  }
+
+  @Test
+  public void shouldSendCsvRowsInBatches() throws IOException {
+    final Path file = write("recipients.csv", "email,name,city\r\n",
+        "first@example.com,First,Berlin\r\n",
+        "second@example.com,\"Second, Jr.\",\"Bad \"\"Quoted\"\"\nTown\"\r\n",
+        ",no email,Paris\r\n",
+        "third@example.com,,Hamburg\r\n");
+
+    final CampaignResult result = this.sender.send(campaign(file, Campaign.Format.CSV, null));
+
+    Assert.assertEquals(2, result.getBatches());
+    Assert.assertEquals(1, result.getInvalidRows());
+    Assert.assertEquals(2, this.sent.size());
+    final MandrillServiceMessage first = this.sent.get(0);
+    Assert.assertEquals("template", first.getTemplate());
+    Assert.assertEquals(Boolean.FALSE, first.getPreserveRecipients());
+    Assert.assertEquals(Arrays.asList("first@example.com", "second@example.com"),
+        emails(first.getRecipients()));
+    Assert.assertEquals("Second, Jr.", first.getRecipients().get(1).getName());
+    Assert.assertEquals("Bad \"Quoted\"\nTown",
+        first.getRecipientReplacements().get("second@example.com").get("city"));
+    Assert.assertEquals(Arrays.asList("third@example.com"),
+        emails(this.sent.get(1).getRecipients()));
+    Assert.assertNull(this.sent.get(1).getRecipients().get(0).getName());
+  }
+
+  @Test
+  public void shouldSendNdjsonRows() throws IOException {
+    final Path file = write("recipients.ndjson",
+        "{\"email\":\"first@example.com\",\"name\":\"First\",\"orders\":3}\n", "\n",
+        "{\"email\":\"second@example.com\",\"tags\":[\"ignored\"]}\n");
+
+    this.sender.send(campaign(file, Campaign.Format.NDJSON, null));
+
+    Assert.assertEquals(1, this.sent.size());
+    Assert.assertEquals(Arrays.asList("first@example.com", "second@example.com"),
+        emails(this.sent.get(0).getRecipients()));
+    Assert.assertEquals("3",
+        this.sent.get(0).getRecipientReplacements().get("first@example.com").get("orders"));
+    Assert.assertNull(this.sent.get(0).getRecipientReplacements().get("second@example.com"));
+  }
+
+  @Test
+  public void shouldResumeAfterLastSentBatch() throws IOException {
+    final Path file = write("recipients.csv", "email\n", "r0@example.com\n", "r1@example.com\n",
+        "r2@example.com\n", "r3@example.com\n", "r4@example.com\n");
+    final File checkpoint = new File(this.folder.getRoot(), "campaign.checkpoint");
+    final AtomicInteger calls = new AtomicInteger();
+    Mockito.when(this.service.sendMailWithResult(Matchers.any(MandrillServiceMessage.class)))
+        .thenAnswer(invocation -> {
+          this.sent.add((MandrillServiceMessage) invocation.getArguments()[0]);
+          if (calls.incrementAndGet() == 2) {
+            throw new MandrillServiceException(new IOException("connection reset"));
+          }
+          return null;
+        });
+
+    try {
+      this.sender.send(campaign(file, Campaign.Format.CSV, checkpoint));
+      Assert.fail("expected MandrillServiceException");
+    } catch (MandrillServiceException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+    this.sent.clear();
+    final CampaignResult result =
+        this.sender.send(campaign(file, Campaign.Format.CSV, checkpoint));
+
+    Assert.assertEquals(2, result.getSkippedRows());
+    Assert.assertEquals(2, this.sent.size());
+    Assert.assertEquals(Arrays.asList("r2@example.com", "r3@example.com"),
+        emails(this.sent.get(0).getRecipients()));
+    Assert.assertEquals("campaign:2", this.sent.get(0).getIdempotencyKey());
+    Assert.assertEquals(Arrays.asList("r4@example.com"),
+        emails(this.sent.get(1).getRecipients()));
+
+    this.sent.clear();
+    Assert.assertEquals(0, this.sender.send(campaign(file, Campaign.Format.CSV, checkpoint))
+        .getBatches());
+    Assert.assertTrue(this.sent.isEmpty());
+  }
+
+  @Test
+  public void shouldResendOnlyFailedChunksOfPartialBatch() throws IOException {
+    final Path file = write("recipients.csv", "email\n", "r0@example.com\n", "r1@example.com\n",
+        "r2@example.com\n", "r3@example.com\n");
+    final File checkpoint = new File(this.folder.getRoot(), "campaign.checkpoint");
+    final List<String> chunks = new ArrayList<>();
+    final AtomicInteger calls = new AtomicInteger();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder().withChunkSize(2)
+        .withChunkParallelism(1).withCampaignBatchSize(4).build();
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, chunk, streamed) -> {
+          final String first = chunk.getTo().get(0).getEmail();
+          chunks.add(first);
+          if (first.equals("r2@example.com") && calls.incrementAndGet() == 1) {
+            throw new IOException("connection reset");
+          }
+          return new MandrillMessageStatus[0];
+        })) {
+      final CampaignSender sender = new CampaignSender(service, config);
+      try {
+        sender.send(campaign(file, Campaign.Format.CSV, checkpoint));
+        Assert.fail("expected PartialSendException");
+      } catch (PartialSendException e) {
+        Assert.assertEquals(RecipientStatus.Status.FAILED,
+            e.getResult().getRecipient("r3@example.com").getStatus());
+      }
+      final CampaignResult result = sender.send(campaign(file, Campaign.Format.CSV, checkpoint));
+
+      Assert.assertEquals(0, result.getSkippedRows());
+      Assert.assertEquals(Arrays.asList("r0@example.com", "r2@example.com", "r2@example.com"),
+          chunks);
+    }
+  }
+
+  private Campaign campaign(Path file, Campaign.Format format, File checkpoint) {
+    return Campaign.newBuilder()
+        .withId("campaign")
+        .withMessage(MandrillServiceMessage.newBuilder().withTemplate("template")
+            .withSubject("subject").build())
+        .withRecipients(file)
+        .withFormat(format)
+        .withCheckpointFile(checkpoint)
+        .build();
+  }
+
+  private Path write(String name, String... lines) throws IOException {
+    final Path file = this.folder.getRoot().toPath().resolve(name);
+    Files.write(file, String.join("", lines).getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static List<String> emails(List<Recipient> recipients) {
+    final List<String> emails = new ArrayList<>();
+    for (final Recipient recipient : recipients) {
+      emails.add(recipient.getEmail());
+    }
+    return emails;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.idempotency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+public class IdempotencyCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1000);
+
+  @Test
+  public void shouldRejectDuplicateWithinTtl() throws IOException {
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, null, this.now::get)) {
+      Assert.assertTrue(cache.tryAcquire("order-1"));
+      Assert.assertFalse(cache.tryAcquire("order-1"));
+      Assert.assertTrue(cache.tryAcquire("order-2"));
+    }
+  }
+
+  @Test
+  public void shouldAcceptReleasedKey() throws IOException {
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, null, this.now::get)) {
+      cache.tryAcquire("order-1");
+      cache.release("order-1");
+
+      Assert.assertTrue(cache.tryAcquire("order-1"));
+    }
+  }
+
+  @Test
+  public void shouldTellDuplicatesHowPendingSendEnded() throws IOException {
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, null, this.now::get)) {
+      cache.tryAcquire("failed");
+      final CompletableFuture<Boolean> failed = cache.whenDone("failed");
+      cache.tryAcquire("sent");
+      final CompletableFuture<Boolean> sent = cache.whenDone("sent");
+      Assert.assertFalse(failed.isDone());
+
+      cache.release("failed");
+      cache.markSent("sent");
+
+      Assert.assertFalse(failed.join());
+      Assert.assertTrue(sent.join());
+      Assert.assertTrue(cache.whenDone("sent").join());
+      Assert.assertFalse(cache.whenDone("unknown").join());
+    }
+  }
+
+  @Test
+  public void shouldKeepSentKeysAcrossRestarts() throws IOException {
+    final File file = new File(this.folder.getRoot(), "idempotency.log");
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, file, this.now::get)) {
+      cache.tryAcquire("sent");
+      cache.markSent("sent");
+      cache.tryAcquire("in-flight");
+    }
+
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, file, this.now::get)) {
+      Assert.assertFalse(cache.tryAcquire("sent"));
+      Assert.assertTrue(cache.tryAcquire("in-flight"));
+    }
+
+    this.now.addAndGet(100);
+    try (IdempotencyCache cache = new IdempotencyCache(100, 10, file, this.now::get)) {
+      Assert.assertTrue(cache.tryAcquire("sent"));
+    }
+  }
+
+  @Test
+  public void shouldSendMessageWithSameKeyOnce() {
+    final AtomicInteger sends = new AtomicInteger();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder().build();
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, message, streamed) -> {
+          sends.incrementAndGet();
+          return new MandrillMessageStatus[0];
+        })) {
+      final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+          .withTemplate("template").withEmail("user@example.com").withIdempotencyKey("order-1")
+          .build();
+      service.sendMail(message);
+      service.sendMail(message);
+    }
+
+    Assert.assertEquals(1, sends.get());
+  }
+
+  @Test
+  public void shouldSendDuplicateWhenPendingMessageFails() throws Exception {
+    final AtomicInteger sends = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch fail = new CountDownLatch(1);
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder().build();
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, message, streamed) -> {
+          if (sends.incrementAndGet() == 1) {
+            started.countDown();
+            try {
+              fail.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            throw new IOException("rejected");
+          }
+          return new MandrillMessageStatus[0];
+        })) {
+      final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+          .withTemplate("template").withEmail("user@example.com").withIdempotencyKey("order-1")
+          .build();
+      final CompletableFuture<SendResult> original = service.sendMailAsync(message);
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      final CompletableFuture<SendResult> duplicate = service.sendMailAsync(message);
+      Assert.assertFalse(duplicate.isDone());
+
+      fail.countDown();
+
+      try {
+        original.join();
+        Assert.fail();
+      } catch (Exception e) {
+        Assert.assertTrue(e.getCause() instanceof MandrillServiceException);
+      }
+      Assert.assertFalse(duplicate.get(5, TimeUnit.SECONDS).isDuplicate());
+      Assert.assertTrue(service.sendMailWithResult(message).isDuplicate());
+    }
+
+    Assert.assertEquals(2, sends.get());
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.metrics.InMemoryMandrillServiceMetrics.TemplateMetrics;
+
+public class InMemoryMandrillServiceMetricsTest {
+
+  private final InMemoryMandrillServiceMetrics metrics = new InMemoryMandrillServiceMetrics();
+  private final MandrillServiceConfig config = MandrillServiceConfig.newBuilder()
+      .withMetrics(this.metrics).withRetryMaxAttempts(1).build();
+
+  @Test
+  public void shouldRecordSuccessfulSendPerTemplate() {
+    try (DefaultMandrillService service = new DefaultMandrillService(this.config,
+        (template, message, streamed) -> new MandrillMessageStatus[0])) {
+      service.sendMail(message("welcome"));
+      service.sendMail(message("welcome"));
+      service.sendMail(message("reset"));
+    }
+
+    final TemplateMetrics welcome = this.metrics.getTemplate("welcome");
+    Assert.assertEquals(2, welcome.getSuccesses());
+    Assert.assertEquals(0, welcome.getErrors());
+    Assert.assertEquals(2, welcome.getBuildTime().getCount());
+    Assert.assertEquals(2, welcome.getApiLatency().getCount());
+    Assert.assertEquals(0, welcome.getAttachmentTime().getCount());
+    Assert.assertEquals(1, this.metrics.getTemplate("reset").getSuccesses());
+  }
+
+  @Test
+  public void shouldRecordFailedSend() {
+    try (DefaultMandrillService service = new DefaultMandrillService(this.config,
+        (template, message, streamed) -> {
+          throw new IOException("connection reset");
+        })) {
+      service.sendMail(message("welcome"));
+      Assert.fail("expected MandrillServiceException");
+    } catch (MandrillServiceException e) {
+      // expected
+    }
+
+    final TemplateMetrics welcome = this.metrics.getTemplate("welcome");
+    Assert.assertEquals(0, welcome.getSuccesses());
+    Assert.assertEquals(1, welcome.getErrors());
+    Assert.assertEquals(1, welcome.getApiLatency().getCount());
+  }
+
+  private static MandrillServiceMessage message(String template) {
+    return MandrillServiceMessage.newBuilder().withTemplate(template).withSubject("subject")
+        .withEmails(Collections.singletonList("user@example.com")).build();
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldMapValuesToContiguousBuckets() {
+    for (int index = 0; index < 400; index++) {
+      final long lowest = LatencyHistogram.lowestEquivalentValue(index);
+      Assert.assertEquals(index, LatencyHistogram.bucketIndex(lowest));
+      Assert.assertEquals(index, LatencyHistogram.bucketIndex(LatencyHistogram.highestEquivalentValue(index)));
+    }
+    Assert.assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE),
+        LatencyHistogram.bucketIndex(LatencyHistogram.highestEquivalentValue(
+            LatencyHistogram.bucketIndex(Long.MAX_VALUE))));
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinPrecision() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 10000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    Assert.assertEquals(10000, histogram.getCount());
+    Assert.assertEquals(10000000, histogram.getMax());
+    Assert.assertEquals(5000500, histogram.getMean(), 0.1);
+    assertWithin(5000000, histogram.getValueAtPercentile(50));
+    assertWithin(9900000, histogram.getValueAtPercentile(99));
+    Assert.assertEquals(10000000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void shouldReportZeroWhenEmpty() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+
+    Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    Assert.assertEquals(0, histogram.getMean(), 0);
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(actual + " not within 12.5% of " + expected,
+        actual >= expected && actual <= expected * 1.125);
+  }
+}
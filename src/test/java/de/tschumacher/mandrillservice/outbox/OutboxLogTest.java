@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private volatile boolean failWrites;
+  private volatile boolean failTruncate;
+
+  @Test
+  public void shouldRecoverMessagesWrittenAfterFailedBatch() throws IOException {
+    final File directory = this.folder.newFolder();
+    writeAroundFailedBatch(directory);
+    Assert.assertEquals(1, directory.list().length);
+    assertRecovered(directory);
+  }
+
+  @Test
+  public void shouldMoveToNewSegmentIfFailedBatchCannotBeTruncated() throws IOException {
+    this.failTruncate = true;
+    final File directory = this.folder.newFolder();
+    writeAroundFailedBatch(directory);
+    Assert.assertEquals(2, directory.list().length);
+    assertRecovered(directory);
+  }
+
+  private void writeAroundFailedBatch(File directory) throws IOException {
+    try (OutboxLog log = new OutboxLog(directory, 1024 * 1024,
+        path -> new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)))) {
+      log.append(1, payload("first")).join();
+      this.failWrites = true;
+      try {
+        log.append(2, payload("torn")).join();
+        Assert.fail("expected CompletionException");
+      } catch (CompletionException e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+      }
+      this.failWrites = false;
+      log.append(3, payload("third")).join();
+    }
+  }
+
+  private static void assertRecovered(File directory) throws IOException {
+    try (OutboxLog log = new OutboxLog(directory, 1024 * 1024)) {
+      Assert.assertEquals(Arrays.asList(1L, 3L), Arrays.asList(log.recovered().keySet().toArray()));
+      Assert.assertArrayEquals(payload("third"), log.recovered().get(3L));
+    }
+  }
+
+  private static byte[] payload(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes half of a buffer and fails while {@code failWrites} is set.
+   */
+  private final class FailingChannel extends FileChannel {
+    private final FileChannel delegate;
+
+    FailingChannel(FileChannel delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      if (OutboxLogTest.this.failWrites) {
+        final ByteBuffer half = src.duplicate();
+        half.limit(src.position() + src.remaining() / 2);
+        this.delegate.write(half);
+        throw new IOException("disk full");
+      }
+      return this.delegate.write(src);
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+      if (OutboxLogTest.this.failTruncate) {
+        throw new IOException("disk gone");
+      }
+      this.delegate.truncate(size);
+      return this;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      return this.delegate.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return this.delegate.read(dsts, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      return this.delegate.write(srcs, offset, length);
+    }
+
+    @Override
+    public long position() throws IOException {
+      return this.delegate.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+      this.delegate.position(newPosition);
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return this.delegate.size();
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+      this.delegate.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+        throws IOException {
+      return this.delegate.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+        throws IOException {
+      return this.delegate.transferFrom(src, position, count);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return this.delegate.read(dst, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+      return this.delegate.write(src, position);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+      return this.delegate.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+      return this.delegate.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+      return this.delegate.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+      this.delegate.close();
+    }
+  }
+}
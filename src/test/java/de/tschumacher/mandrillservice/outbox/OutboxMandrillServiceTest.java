@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.outbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+import de.tschumacher.mandrillservice.exception.PartialSendException;
+
+public class OutboxMandrillServiceTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MandrillServiceConfig config;
+
+  @Before
+  public void setUp() throws IOException {
+    this.config = MandrillServiceConfig.newBuilder().withOutboxDirectory(this.folder.newFolder())
+        .withOutboxSegmentBytes(256).build();
+  }
+
+  @Test
+  public void shouldReplayMessageAfterTransientFailure() {
+    final MandrillService failing = Mockito.mock(MandrillService.class);
+    final CompletableFuture<SendResult> failure = new CompletableFuture<>();
+    failure.completeExceptionally(
+        new MandrillServiceException(new ConnectException("connection refused")));
+    Mockito.when(failing.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(failure);
+
+    try (OutboxMandrillService service = new OutboxMandrillService(failing, this.config)) {
+      service.sendMail(message("first@example.com"));
+      Assert.fail("expected MandrillServiceException");
+    } catch (MandrillServiceException e) {
+      Assert.assertTrue(e.getCause() instanceof ConnectException);
+    }
+
+    final MandrillService recovering = succeedingDelegate();
+    new OutboxMandrillService(recovering, this.config).close();
+
+    final ArgumentCaptor<MandrillServiceMessage> captor =
+        ArgumentCaptor.forClass(MandrillServiceMessage.class);
+    Mockito.verify(recovering, Mockito.times(1)).sendMailAsync(captor.capture());
+    Assert.assertEquals("first@example.com", captor.getValue().getEmails().get(0));
+    Assert.assertEquals("1", captor.getValue().getReplacements().get("id"));
+
+    final MandrillService afterReplay = succeedingDelegate();
+    new OutboxMandrillService(afterReplay, this.config).close();
+    Mockito.verify(afterReplay, Mockito.never()).sendMailAsync(
+        Matchers.any(MandrillServiceMessage.class));
+  }
+
+  @Test
+  public void shouldReplayOnlyFailedRecipientsOfPartialSend() {
+    final MandrillService partial = Mockito.mock(MandrillService.class);
+    final CompletableFuture<SendResult> failure = new CompletableFuture<>();
+    failure.completeExceptionally(new PartialSendException(
+        SendResult.partial(null, Collections.emptyList(), Arrays.asList("second@example.com"),
+            Arrays.asList(new ConnectException("connection refused"))),
+        new ConnectException("connection refused")));
+    Mockito.when(partial.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(failure);
+
+    try (OutboxMandrillService service = new OutboxMandrillService(partial, this.config)) {
+      service.sendMail(MandrillServiceMessage.newBuilder()
+          .withEmails(Arrays.asList("first@example.com", "second@example.com"))
+          .withTemplate("template").withIdempotencyKey("order-1").build());
+      Assert.fail("expected PartialSendException");
+    } catch (PartialSendException e) {
+      Assert.assertFalse(e.getResult().isAccepted());
+    }
+
+    final MandrillService recovering = succeedingDelegate();
+    new OutboxMandrillService(recovering, this.config).close();
+
+    final ArgumentCaptor<MandrillServiceMessage> captor =
+        ArgumentCaptor.forClass(MandrillServiceMessage.class);
+    Mockito.verify(recovering, Mockito.times(1)).sendMailAsync(captor.capture());
+    Assert.assertEquals(Arrays.asList("second@example.com"), captor.getValue().getEmails());
+    Assert.assertEquals("order-1#failed", captor.getValue().getIdempotencyKey());
+  }
+
+  @Test
+  public void shouldNotReplaySentMessages() {
+    final MandrillService delegate = succeedingDelegate();
+    try (OutboxMandrillService service = new OutboxMandrillService(delegate, this.config)) {
+      for (int i = 0; i < 10; i++) {
+        service.sendMail(message("recipient" + i + "@example.com"));
+      }
+    }
+    Mockito.verify(delegate, Mockito.times(10)).sendMailAsync(
+        Matchers.any(MandrillServiceMessage.class));
+
+    final MandrillService restarted = succeedingDelegate();
+    new OutboxMandrillService(restarted, this.config).close();
+    Mockito.verify(restarted, Mockito.never()).sendMailAsync(
+        Matchers.any(MandrillServiceMessage.class));
+    Assert.assertTrue(this.config.getOutboxDirectory().list().length <= 1);
+  }
+
+  @Test
+  public void shouldMarkSendsDoneThatFinishWhileClosing() {
+    final MandrillService delegate = Mockito.mock(MandrillService.class);
+    final CompletableFuture<SendResult> inFlight = new CompletableFuture<>();
+    Mockito.when(delegate.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(inFlight);
+    Mockito.doAnswer(invocation -> inFlight.complete(null)).when(delegate).close();
+
+    final OutboxMandrillService service = new OutboxMandrillService(delegate, this.config);
+    final CompletableFuture<SendResult> result =
+        service.sendMailAsync(message("first@example.com"));
+    // the message is logged before it is handed to the delegate
+    Mockito.verify(delegate, Mockito.timeout(5000)).sendMailAsync(
+        Matchers.any(MandrillServiceMessage.class));
+    service.close();
+    result.join();
+
+    final MandrillService restarted = succeedingDelegate();
+    new OutboxMandrillService(restarted, this.config).close();
+    Mockito.verify(restarted, Mockito.never()).sendMailAsync(
+        Matchers.any(MandrillServiceMessage.class));
+  }
+
+  @Test
+  public void shouldKeepInMemoryAttachmentContent() throws IOException {
+    final byte[] content = "invoice".getBytes(StandardCharsets.UTF_8);
+    final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+        .withEmails(Collections.singletonList("first@example.com")).withTemplate("template")
+        .withAttachments(Collections.singletonList(MandrillServiceAttachment.newBuilder()
+            .withName("invoice.pdf").withType("application/pdf")
+            .withContentSupplier(() -> new ByteArrayInputStream(content)).build()))
+        .build();
+
+    final MandrillServiceAttachment decoded = OutboxMessageCodec
+        .decode(OutboxMessageCodec.encode(message)).getAttachments().get(0);
+    Assert.assertNull(decoded.getFile());
+    Assert.assertEquals("invoice.pdf", decoded.getName());
+    Assert.assertArrayEquals(content, decoded.readContent());
+  }
+
+  private static MandrillService succeedingDelegate() {
+    final MandrillService delegate = Mockito.mock(MandrillService.class);
+    Mockito.when(delegate.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    return delegate;
+  }
+
+  private static MandrillServiceMessage message(String email) {
+    return MandrillServiceMessage.newBuilder().withEmails(Collections.singletonList(email))
+        .withTemplate("template").withSubject("subject")
+        .withReplacements(Collections.singletonMap("id", "1")).build();
+  }
+}
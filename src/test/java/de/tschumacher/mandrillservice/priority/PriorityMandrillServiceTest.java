@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage.Lane;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+public class PriorityMandrillServiceTest {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+  private PriorityMandrillService service;
+
+  @Before
+  public void setUp() {
+    final MandrillService delegate = Mockito.mock(MandrillService.class);
+    Mockito.doAnswer(invocation -> {
+      final MandrillServiceMessage message = (MandrillServiceMessage) invocation.getArguments()[0];
+      this.release.await(5, TimeUnit.SECONDS);
+      this.sent.add(message.getSubject());
+      return null;
+    }).when(delegate).sendMailWithResult(Matchers.any(MandrillServiceMessage.class));
+
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder()
+        .withTransactionalLaneWeight(3).withBulkLaneWeight(1).withLaneConcurrency(1)
+        .withLaneQueueSize(4).build();
+    this.service = new PriorityMandrillService(delegate, config);
+  }
+
+  @After
+  public void afterTest() {
+    this.release.countDown();
+    this.service.close();
+  }
+
+  @Test
+  public void shouldShareSlotsByWeight() throws Exception {
+    final List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+    futures.add(this.service.sendMailAsync(message("B0", Lane.BULK)));
+    for (int i = 1; i <= 4; i++) {
+      futures.add(this.service.sendMailAsync(message("B" + i, Lane.BULK)));
+      futures.add(this.service.sendMailAsync(message("T" + i, Lane.TRANSACTIONAL)));
+    }
+    this.release.countDown();
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+    Assert.assertEquals(Arrays.asList("B0", "T1", "T2", "B1", "T3", "T4", "B2", "B3", "B4"),
+        this.sent);
+  }
+
+  @Test
+  public void shouldRejectWhenLaneIsFull() throws Exception {
+    this.service.sendMailAsync(message("B0", Lane.BULK));
+    for (int i = 1; i <= 4; i++) {
+      this.service.sendMailAsync(message("B" + i, Lane.BULK));
+    }
+
+    final CompletableFuture<SendResult> rejected =
+        this.service.sendMailAsync(message("B5", Lane.BULK));
+    final CompletableFuture<SendResult> accepted =
+        this.service.sendMailAsync(message("T1", Lane.TRANSACTIONAL));
+
+    try {
+      rejected.join();
+      Assert.fail("expected rejection");
+    } catch (Exception e) {
+      Assert.assertTrue(MandrillServiceException.of(e).getCause() instanceof RejectedExecutionException);
+    }
+    Assert.assertFalse(accepted.isDone());
+    Assert.assertEquals(4, this.service.getQueued(Lane.BULK));
+  }
+
+  @Test
+  public void shouldFailQueuedMessagesWhenCloseStopsWaiting() throws Exception {
+    final CompletableFuture<SendResult> running =
+        this.service.sendMailAsync(message("T0", Lane.TRANSACTIONAL));
+    final CompletableFuture<SendResult> queued =
+        this.service.sendMailAsync(message("T1", Lane.TRANSACTIONAL));
+
+    final Thread closing = new Thread(this.service::close);
+    closing.start();
+    closing.interrupt();
+    closing.join(5000);
+
+    try {
+      queued.get(5, TimeUnit.SECONDS);
+      Assert.fail("expected rejection");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+    }
+    this.release.countDown();
+    running.get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(Arrays.asList("T0"), this.sent);
+  }
+
+  private static MandrillServiceMessage message(String subject, Lane lane) {
+    return MandrillServiceMessage.newBuilder().withTemplate("template").withSubject(subject)
+        .withEmail("user@example.com").withLane(lane).build();
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.reactive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import de.tschumacher.mandrillservice.MandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+public class ReactiveMandrillServiceTest {
+
+  private final List<CompletableFuture<SendResult>> sends = new ArrayList<>();
+  private MandrillService delegate;
+  private ReactiveMandrillService service;
+
+  @Before
+  public void setUp() {
+    this.delegate = Mockito.mock(MandrillService.class);
+    Mockito.when(this.delegate.sendMailAsync(Matchers.any(MandrillServiceMessage.class)))
+        .thenAnswer(invocation -> {
+          final CompletableFuture<SendResult> future = new CompletableFuture<>();
+          this.sends.add(future);
+          return future;
+        });
+    this.service = new ReactiveMandrillService(this.delegate,
+        MandrillServiceConfig.newBuilder().withReactiveMaxInFlight(3).build());
+  }
+
+  @Test
+  public void shouldRequestOnlyAsManyMessagesAsCanBeInFlight() {
+    final MessagePublisher publisher = new MessagePublisher(10);
+    final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+    this.service.send(publisher).subscribe(subscriber);
+
+    Assert.assertEquals(3, publisher.requested);
+    Assert.assertEquals(3, this.sends.size());
+
+    this.sends.get(0).complete(SendResult.duplicate());
+    Assert.assertEquals(4, publisher.requested);
+    Assert.assertEquals(1, subscriber.outcomes.size());
+
+    while (this.sends.stream().anyMatch(future -> !future.isDone())) {
+      new ArrayList<>(this.sends).forEach(future -> future.complete(SendResult.duplicate()));
+    }
+    Assert.assertEquals(10, subscriber.outcomes.size());
+    Assert.assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void shouldFollowDownstreamDemand() {
+    final MessagePublisher publisher = new MessagePublisher(10);
+    final CollectingSubscriber subscriber = new CollectingSubscriber(1);
+    this.service.send(publisher).subscribe(subscriber);
+    Assert.assertEquals(1, publisher.requested);
+
+    this.sends.get(0).complete(SendResult.duplicate());
+    Assert.assertEquals(1, subscriber.outcomes.size());
+    Assert.assertEquals(1, publisher.requested);
+
+    subscriber.subscription.request(2);
+    Assert.assertEquals(3, publisher.requested);
+  }
+
+  @Test
+  public void shouldContinueAfterFailedMessage() {
+    final MessagePublisher publisher = new MessagePublisher(2);
+    final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+    this.service.send(publisher).subscribe(subscriber);
+
+    this.sends.get(0).completeExceptionally(new IOException("connection reset"));
+    this.sends.get(1).complete(SendResult.duplicate());
+
+    Assert.assertEquals(2, subscriber.outcomes.size());
+    Assert.assertFalse(subscriber.outcomes.get(0).isSuccess());
+    Assert.assertTrue(subscriber.outcomes.get(0).getError() instanceof MandrillServiceException);
+    Assert.assertEquals("0", subscriber.outcomes.get(0).getMessage().getSubject());
+    Assert.assertTrue(subscriber.outcomes.get(1).isSuccess());
+    Assert.assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void shouldCancelPublisherWhenCancelled() {
+    final MessagePublisher publisher = new MessagePublisher(10);
+    final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+    this.service.send(publisher).subscribe(subscriber);
+
+    subscriber.subscription.cancel();
+    this.sends.forEach(future -> future.complete(SendResult.duplicate()));
+
+    Assert.assertTrue(publisher.cancelled);
+    Assert.assertEquals(3, publisher.requested);
+    Assert.assertTrue(subscriber.outcomes.isEmpty());
+    Assert.assertFalse(subscriber.completed);
+  }
+
+  private static final class MessagePublisher implements Publisher<MandrillServiceMessage> {
+    private final int count;
+    private long requested;
+    private int emitted;
+    private boolean emitting;
+    private boolean cancelled;
+
+    MessagePublisher(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super MandrillServiceMessage> subscriber) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+          MessagePublisher.this.requested += n;
+          if (MessagePublisher.this.emitting) {
+            return;
+          }
+          MessagePublisher.this.emitting = true;
+          while (!MessagePublisher.this.cancelled
+              && MessagePublisher.this.emitted < MessagePublisher.this.count
+              && MessagePublisher.this.emitted < MessagePublisher.this.requested) {
+            subscriber.onNext(MandrillServiceMessage.newBuilder().withTemplate("template")
+                .withSubject(String.valueOf(MessagePublisher.this.emitted++)).build());
+          }
+          MessagePublisher.this.emitting = false;
+          if (MessagePublisher.this.emitted == MessagePublisher.this.count) {
+            MessagePublisher.this.emitted++;
+            subscriber.onComplete();
+          }
+        }
+
+        @Override
+        public void cancel() {
+          MessagePublisher.this.cancelled = true;
+        }
+      });
+    }
+  }
+
+  private static final class CollectingSubscriber implements Subscriber<SendOutcome> {
+    private final long initialRequest;
+    private final List<SendOutcome> outcomes = new ArrayList<>();
+    private Subscription subscription;
+    private boolean completed;
+
+    CollectingSubscriber(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(this.initialRequest);
+    }
+
+    @Override
+    public void onNext(SendOutcome outcome) {
+      this.outcomes.add(outcome);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      Assert.fail(throwable.toString());
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tschumacher.mandrillservice.exception.RateLimitExceededException;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  private final AtomicInteger reported = new AtomicInteger();
+  private final AtomicLong clock = new AtomicLong();
+  private final AdaptiveConcurrencyLimiter limiter =
+      new AdaptiveConcurrencyLimiter(4, 1, 8, 2.0, 0.5, 1000, this.reported::set, this.clock::get);
+
+  @Test
+  public void shouldGrowWhileSaturatedAndFast() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final int limit = this.limiter.getLimit();
+      for (int i = 0; i < limit; i++) {
+        this.limiter.acquire();
+      }
+      for (int i = 0; i < limit; i++) {
+        this.limiter.onSuccess(1000);
+      }
+    }
+
+    Assert.assertEquals(8, this.limiter.getLimit());
+    Assert.assertEquals(8, this.reported.get());
+  }
+
+  @Test
+  public void shouldBackOffOnSlowCalls() throws Exception {
+    this.limiter.acquire();
+    this.clock.addAndGet(1000);
+    this.limiter.onSuccess(1000);
+    this.limiter.acquire();
+    this.clock.addAndGet(5000);
+    this.limiter.onSuccess(5000);
+
+    Assert.assertEquals(2, this.limiter.getLimit());
+    Assert.assertEquals(2, this.reported.get());
+  }
+
+  @Test
+  public void shouldBackOffOncePerRoundTrip() throws Exception {
+    this.limiter.acquire();
+    this.clock.addAndGet(1000);
+    this.limiter.onSuccess(1000);
+    for (int i = 0; i < 4; i++) {
+      this.limiter.acquire();
+    }
+    this.clock.addAndGet(5000);
+    for (int i = 0; i < 3; i++) {
+      this.limiter.onSuccess(5000);
+    }
+    Assert.assertEquals(2, this.limiter.getLimit());
+
+    // a call started after the decrease may shrink the limit again
+    this.clock.addAndGet(5000);
+    this.limiter.onDropped(4000);
+    Assert.assertEquals(1, this.limiter.getLimit());
+  }
+
+  @Test
+  public void shouldBackOffOnOverloadButNotBelowMinimum() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      this.limiter.acquire();
+      this.limiter.onDropped(0);
+    }
+
+    Assert.assertEquals(1, this.limiter.getLimit());
+  }
+
+  @Test
+  public void shouldKeepLimitOnUnrelatedFailures() throws Exception {
+    this.limiter.acquire();
+    this.limiter.onIgnored();
+
+    Assert.assertEquals(4, this.limiter.getLimit());
+  }
+
+  @Test
+  public void shouldBlockWhileLimitIsReached() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      this.limiter.acquire();
+    }
+    final Thread waiting = new Thread(() -> {
+      try {
+        this.limiter.acquire();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    waiting.start();
+    waiting.join(100);
+    Assert.assertTrue(waiting.isAlive());
+
+    this.limiter.onIgnored();
+    waiting.join(1000);
+    Assert.assertFalse(waiting.isAlive());
+  }
+
+  @Test
+  public void shouldGiveUpWaitingAfterTimeout() throws Exception {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0, 0.5, 10, this.reported::set, this.clock::get);
+    limiter.acquire();
+
+    try {
+      limiter.acquire();
+      Assert.fail("expected RateLimitExceededException");
+    } catch (RateLimitExceededException e) {
+      Assert.assertEquals(1, limiter.getLimit());
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tschumacher.mandrillservice.exception.CircuitBreakerOpenException;
+
+public class CircuitBreakerTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1000, this.now::get);
+
+  @Test
+  public void shouldOpenAfterConsecutiveFailures() {
+    this.circuitBreaker.onFailure();
+    this.circuitBreaker.acquire();
+    this.circuitBreaker.onFailure();
+
+    Assert.assertTrue(this.circuitBreaker.isOpen());
+    try {
+      this.circuitBreaker.acquire();
+      Assert.fail();
+    } catch (CircuitBreakerOpenException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldLetSingleTrialThroughAfterOpenPeriod() {
+    this.circuitBreaker.onFailure();
+    this.circuitBreaker.onFailure();
+    this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+    this.circuitBreaker.acquire();
+    try {
+      this.circuitBreaker.acquire();
+      Assert.fail();
+    } catch (CircuitBreakerOpenException e) {
+      // expected
+    }
+
+    this.circuitBreaker.onSuccess();
+    this.circuitBreaker.acquire();
+    Assert.assertFalse(this.circuitBreaker.isOpen());
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.microtripit.mandrillapp.lutung.model.MandrillApiError;
+
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+
+public class RetryPolicyTest {
+
+  private RetryPolicy retryPolicy;
+  private CircuitBreaker circuitBreaker;
+
+  @Before
+  public void setUp() {
+    final MandrillServiceConfig config = Mockito.mock(MandrillServiceConfig.class);
+    Mockito.when(config.getRetryMaxAttempts()).thenReturn(3);
+    Mockito.when(config.getRetryInitialBackoffMillis()).thenReturn(1L);
+    Mockito.when(config.getRetryMaxBackoffMillis()).thenReturn(2L);
+    Mockito.when(config.getCircuitBreakerFailureThreshold()).thenReturn(10);
+    Mockito.when(config.getCircuitBreakerOpenMillis()).thenReturn(1000L);
+    this.retryPolicy = new RetryPolicy(config);
+    this.circuitBreaker = new CircuitBreaker(config);
+  }
+
+  @Test
+  public void shouldRetryConnectFailure() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    final String result = this.retryPolicy.call(() -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new ConnectException("connection refused");
+      }
+      return "sent";
+    }, this.circuitBreaker, false);
+
+    Assert.assertEquals("sent", result);
+    Assert.assertEquals(3, attempts.get());
+  }
+
+  @Test
+  public void shouldNotRetryValidationError() throws IOException {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      this.retryPolicy.call(() -> {
+        attempts.incrementAndGet();
+        throw new MandrillApiError("ValidationError");
+      }, this.circuitBreaker, true);
+      Assert.fail();
+    } catch (MandrillApiError e) {
+      // expected
+    }
+
+    Assert.assertEquals(1, attempts.get());
+  }
+
+  @Test
+  public void shouldGiveUpAfterMaxAttempts() throws MandrillApiError {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      this.retryPolicy.call(() -> {
+        attempts.incrementAndGet();
+        throw new IOException("timeout");
+      }, this.circuitBreaker, true);
+      Assert.fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    Assert.assertEquals(3, attempts.get());
+  }
+
+  @Test
+  public void shouldRetryReadTimeoutOnlyWithIdempotencyKey() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final MandrillCall<String> call = () -> {
+      if (attempts.incrementAndGet() % 2 == 1) {
+        throw new SocketTimeoutException("read timed out");
+      }
+      return "sent";
+    };
+
+    try {
+      this.retryPolicy.call(call, this.circuitBreaker, false);
+      Assert.fail();
+    } catch (SocketTimeoutException e) {
+      // the request may have reached Mandrill
+    }
+    Assert.assertEquals(1, attempts.get());
+
+    attempts.set(0);
+    Assert.assertEquals("sent", this.retryPolicy.call(call, this.circuitBreaker, true));
+    Assert.assertEquals(2, attempts.get());
+  }
+
+}
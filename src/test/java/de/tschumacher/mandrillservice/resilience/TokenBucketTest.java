@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final TokenBucket bucket = new TokenBucket(10, TimeUnit.SECONDS.toNanos(1), this.now::get);
+
+  @Test
+  public void shouldAllowBurstUpToRate() {
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(0, this.bucket.reserve(1, 0));
+    }
+    Assert.assertEquals(-1, this.bucket.reserve(1, 0));
+  }
+
+  @Test
+  public void shouldReturnWaitForNextPermit() {
+    this.bucket.reserve(10, 0);
+
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), this.bucket.reserve(1, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void shouldRefillOverTime() {
+    this.bucket.reserve(10, 0);
+    this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+
+    Assert.assertEquals(0, this.bucket.reserve(2, 0));
+    Assert.assertEquals(-1, this.bucket.reserve(1, 0));
+  }
+
+  @Test
+  public void shouldReleaseUnusedPermits() {
+    this.bucket.reserve(10, 0);
+    this.bucket.release(1);
+
+    Assert.assertEquals(0, this.bucket.reserve(1, 0));
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.routing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecipientRouterTest {
+
+  @Test
+  public void shouldMatchWholeAddressAgainstRegex() {
+    final RecipientRouter router = new RecipientRouter(".*@example.com", null, null);
+
+    Assert.assertTrue(router.isAllowed("user@example.com"));
+    Assert.assertFalse(router.isAllowed("user@example.com.evil.org"));
+    Assert.assertFalse(router.isAllowed("user@google.com"));
+  }
+
+  @Test
+  public void shouldAllowListedAddressesIgnoringCase() {
+    final RecipientRouter router = new RecipientRouter(null,
+        Collections.singleton("QA@Example.org"), Collections.<String>emptySet());
+
+    Assert.assertTrue(router.hasRules());
+    Assert.assertTrue(router.isAllowed("qa@example.org"));
+    Assert.assertFalse(router.isAllowed("dev@example.org"));
+  }
+
+  @Test
+  public void shouldAllowListedDomainsAndSubdomains() {
+    final RecipientRouter router = new RecipientRouter(null, null,
+        new HashSet<>(Arrays.asList("staging.example.com", "test.org")));
+
+    Assert.assertTrue(router.isAllowed("user@staging.example.com"));
+    Assert.assertTrue(router.isAllowed("user@eu.staging.example.com"));
+    Assert.assertTrue(router.isAllowed("user@TEST.org"));
+    Assert.assertFalse(router.isAllowed("user@example.com"));
+    Assert.assertFalse(router.isAllowed("user@notstaging.example.com"));
+    Assert.assertFalse(router.isAllowed("test.org"));
+  }
+
+  @Test
+  public void shouldHaveNoRulesWithoutConfiguration() {
+    Assert.assertFalse(new RecipientRouter(null, null, null).hasRules());
+  }
+}
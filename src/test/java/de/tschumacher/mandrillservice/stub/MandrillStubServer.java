@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.stub;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the {@code messages/send-template} endpoint, for tests and load tests
+ * that should go over real http without reaching Mandrill. Every recipient of an accepted request
+ * is reported as sent.
+ *
+ * <p>A request is delayed by the configured latency plus a random jitter, then answered with a
+ * {@code GeneralError} 500 at the configured error rate. Requests above the rate limit of the
+ * current second are answered with a plain 429 right away.
+ */
+public class MandrillStubServer implements AutoCloseable {
+
+  public static final String PATH = "/api/1.0/messages/send-template.json";
+
+  private static final String GENERAL_ERROR =
+      "{\"status\":\"error\",\"code\":-1,\"name\":\"GeneralError\",\"message\":\"stub error\"}";
+  private static final String INVALID_REQUEST =
+      "{\"status\":\"error\",\"code\":-2,\"name\":\"ValidationError\",\"message\":\"invalid\"}";
+
+  static {
+    // the server writes headers and body separately, with Nagle's algorithm every response would
+    // wait for the delayed ack of the client; read once when the first server is created
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private final long latencyMillis;
+  private final long latencyJitterMillis;
+  private final double errorRate;
+  private final int rateLimitPerSecond;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong recipients = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+  private final AtomicInteger requestsInSecond = new AtomicInteger();
+  private volatile long currentSecond;
+
+  private MandrillStubServer(Builder builder) throws IOException {
+    this.latencyMillis = builder.latencyMillis;
+    this.latencyJitterMillis = builder.latencyJitterMillis;
+    this.errorRate = builder.errorRate;
+    this.rateLimitPerSecond = builder.rateLimitPerSecond;
+    this.executor = Executors.newFixedThreadPool(builder.threads, new ThreadFactoryBuilder()
+        .setNameFormat("mandrill-stub-%d").setDaemon(true).build());
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    this.server.createContext(PATH, this::handle);
+    this.server.setExecutor(this.executor);
+    this.server.start();
+  }
+
+  /**
+   * @return value for {@code MandrillServiceConfig.Builder.withApiRootUrl}
+   */
+  public String getRootUrl() {
+    return "http://" + this.server.getAddress().getHostString() + ":"
+        + this.server.getAddress().getPort() + "/api/1.0/";
+  }
+
+  public long getRequests() {
+    return this.requests.get();
+  }
+
+  public long getRecipients() {
+    return this.recipients.get();
+  }
+
+  public long getErrors() {
+    return this.errors.get();
+  }
+
+  public long getRateLimited() {
+    return this.rateLimited.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      this.requests.incrementAndGet();
+      final JsonElement body;
+      try (Reader reader =
+          new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+        body = new JsonParser().parse(reader);
+      } catch (JsonParseException e) {
+        respond(exchange, 500, INVALID_REQUEST);
+        return;
+      }
+      if (!tryAcquire()) {
+        this.rateLimited.incrementAndGet();
+        respond(exchange, 429, "rate limit exceeded");
+        return;
+      }
+      sleep();
+      if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+        this.errors.incrementAndGet();
+        respond(exchange, 500, GENERAL_ERROR);
+        return;
+      }
+      respond(exchange, 200, statuses(body).toString());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private JsonArray statuses(JsonElement body) {
+    final JsonArray statuses = new JsonArray();
+    final JsonElement to = body.isJsonObject() && body.getAsJsonObject().has("message")
+        ? body.getAsJsonObject().getAsJsonObject("message").get("to") : null;
+    if (to == null || !to.isJsonArray()) {
+      return statuses;
+    }
+    for (final JsonElement recipient : to.getAsJsonArray()) {
+      final JsonObject status = new JsonObject();
+      status.addProperty("email", recipient.getAsJsonObject().get("email").getAsString());
+      status.addProperty("status", "sent");
+      status.addProperty("_id", UUID.randomUUID().toString().replace("-", ""));
+      statuses.add(status);
+    }
+    this.recipients.addAndGet(statuses.size());
+    return statuses;
+  }
+
+  private boolean tryAcquire() {
+    if (this.rateLimitPerSecond <= 0) {
+      return true;
+    }
+    final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    if (second != this.currentSecond) {
+      synchronized (this) {
+        if (second != this.currentSecond) {
+          this.requestsInSecond.set(0);
+          this.currentSecond = second;
+        }
+      }
+    }
+    return this.requestsInSecond.incrementAndGet() <= this.rateLimitPerSecond;
+  }
+
+  private void sleep() {
+    final long delay = this.latencyMillis + (this.latencyJitterMillis > 0
+        ? ThreadLocalRandom.current().nextLong(this.latencyJitterMillis + 1) : 0);
+    if (delay <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type",
+        status == 429 ? "text/plain" : "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private long latencyMillis;
+    private long latencyJitterMillis;
+    private double errorRate;
+    private int rateLimitPerSecond;
+    private int threads = 200;
+
+    public Builder withLatencyMillis(long latencyMillis) {
+      this.latencyMillis = latencyMillis;
+      return this;
+    }
+
+    /**
+     * @param latencyJitterMillis upper bound of a uniformly random delay added to the latency
+     */
+    public Builder withLatencyJitterMillis(long latencyJitterMillis) {
+      this.latencyJitterMillis = latencyJitterMillis;
+      return this;
+    }
+
+    /**
+     * @param errorRate share of requests answered with a retryable error, between 0 and 1
+     */
+    public Builder withErrorRate(double errorRate) {
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * @param rateLimitPerSecond requests accepted per second, 0 for no limit
+     */
+    public Builder withRateLimitPerSecond(int rateLimitPerSecond) {
+      this.rateLimitPerSecond = rateLimitPerSecond;
+      return this;
+    }
+
+    /**
+     * @param threads requests handled at the same time, including the ones waiting for their
+     *        latency
+     */
+    public Builder withThreads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    public MandrillStubServer start() throws IOException {
+      return new MandrillStubServer(this);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.stub;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+import de.tschumacher.mandrillservice.domain.RecipientStatus.Status;
+import de.tschumacher.mandrillservice.domain.SendResult;
+import de.tschumacher.mandrillservice.exception.MandrillServiceException;
+
+public class MandrillStubServerTest {
+
+  private static final MandrillServiceMessage MESSAGE = MandrillServiceMessage.newBuilder()
+      .withTemplate("template").withSubject("subject")
+      .withEmails(Arrays.asList("first@example.com", "second@example.com")).build();
+
+  @Test
+  public void shouldSendOverHttp() throws IOException {
+    try (MandrillStubServer stub = MandrillStubServer.newBuilder().withLatencyMillis(5).start();
+        DefaultMandrillService service = new DefaultMandrillService(config(stub, 1))) {
+      final SendResult result = service.sendMailWithResult(MESSAGE);
+
+      Assert.assertTrue(result.isAccepted());
+      Assert.assertEquals(Status.SENT, result.getRecipient("second@example.com").getStatus());
+      Assert.assertNotNull(result.getRecipient("first@example.com").getMessageId());
+      Assert.assertEquals(1, stub.getRequests());
+      Assert.assertEquals(2, stub.getRecipients());
+    }
+  }
+
+  @Test
+  public void shouldRetryStubErrors() throws IOException {
+    try (MandrillStubServer stub = MandrillStubServer.newBuilder().withErrorRate(1).start();
+        DefaultMandrillService service = new DefaultMandrillService(config(stub, 3))) {
+      try {
+        service.sendMail(MESSAGE);
+        Assert.fail("expected MandrillServiceException");
+      } catch (MandrillServiceException e) {
+        Assert.assertEquals(3, stub.getRequests());
+        Assert.assertEquals(3, stub.getErrors());
+      }
+    }
+  }
+
+  @Test
+  public void shouldRejectRequestsAboveRateLimit() throws IOException {
+    try (MandrillStubServer stub =
+        MandrillStubServer.newBuilder().withRateLimitPerSecond(1).start();
+        DefaultMandrillService service = new DefaultMandrillService(config(stub, 1))) {
+      int failed = 0;
+      for (int i = 0; i < 3; i++) {
+        try {
+          service.sendMail(MESSAGE);
+        } catch (MandrillServiceException e) {
+          failed++;
+        }
+      }
+      // at most one request per second, the sends may span two seconds
+      Assert.assertTrue(failed >= 1);
+      Assert.assertEquals(failed, stub.getRateLimited());
+    }
+  }
+
+  private static MandrillServiceConfig config(MandrillStubServer stub, int attempts) {
+    return MandrillServiceConfig.newBuilder().withMandrillKey("key")
+        .withApiRootUrl(stub.getRootUrl()).withRetryMaxAttempts(attempts)
+        .withRetryInitialBackoffMillis(1).withRetryMaxBackoffMillis(1).build();
+  }
+}
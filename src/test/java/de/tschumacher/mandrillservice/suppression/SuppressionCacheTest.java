@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.suppression;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessageStatus;
+
+import de.tschumacher.mandrillservice.DefaultMandrillService;
+import de.tschumacher.mandrillservice.configuration.MandrillServiceConfig;
+import de.tschumacher.mandrillservice.domain.MandrillServiceMessage;
+
+public class SuppressionCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1000);
+
+  @Test
+  public void shouldSuppressPermanentRejectionsOnly() throws IOException {
+    try (SuppressionCache cache = new SuppressionCache(100, 10, null, this.now::get)) {
+      cache.record(new MandrillMessageStatus[] {status("bounced@example.com", "rejected", "hard-bounce"),
+          status("full@example.com", "rejected", "soft-bounce"),
+          status("broken@example.com", "invalid", null),
+          status("fine@example.com", "sent", null)});
+
+      Assert.assertTrue(cache.isSuppressed("Bounced@Example.com"));
+      Assert.assertFalse(cache.isSuppressed("full@example.com"));
+      Assert.assertTrue(cache.isSuppressed("broken@example.com"));
+      Assert.assertFalse(cache.isSuppressed("fine@example.com"));
+    }
+  }
+
+  @Test
+  public void shouldKeepEntriesAcrossRestartsUntilExpired() throws IOException {
+    final File file = new File(this.folder.getRoot(), "suppression.bin");
+    try (SuppressionCache cache = new SuppressionCache(100, 10, file, this.now::get)) {
+      cache.suppress("bounced@example.com");
+    }
+
+    try (SuppressionCache cache = new SuppressionCache(100, 10, file, this.now::get)) {
+      Assert.assertTrue(cache.isSuppressed("bounced@example.com"));
+      this.now.addAndGet(100);
+      Assert.assertFalse(cache.isSuppressed("bounced@example.com"));
+    }
+  }
+
+  @Test
+  public void shouldLeaveSuppressedRecipientsOutAndReportThem() {
+    final List<List<String>> sentTo = new ArrayList<>();
+    final List<String> reported = new ArrayList<>();
+    final MandrillServiceConfig config = MandrillServiceConfig.newBuilder()
+        .withSuppressionTtlMillis(TimeUnit.DAYS.toMillis(7))
+        .withSuppressionListener((message, emails) -> reported.addAll(emails)).build();
+    sendTwice(config, sentTo);
+
+    Assert.assertEquals(Arrays.asList("good@example.com", "bounced@example.com"), sentTo.get(0));
+    Assert.assertEquals(Arrays.asList("good@example.com"), sentTo.get(1));
+    Assert.assertEquals(Arrays.asList("bounced@example.com"), reported);
+  }
+
+  @Test
+  public void shouldNotSuppressUnlessEnabled() {
+    final List<List<String>> sentTo = new ArrayList<>();
+    sendTwice(MandrillServiceConfig.newBuilder().build(), sentTo);
+
+    Assert.assertEquals(sentTo.get(0), sentTo.get(1));
+  }
+
+  private static void sendTwice(MandrillServiceConfig config, List<List<String>> sentTo) {
+    try (DefaultMandrillService service = new DefaultMandrillService(config,
+        (template, message, streamed) -> {
+          final List<String> emails = new ArrayList<>();
+          for (final MandrillMessage.Recipient recipient : message.getTo()) {
+            emails.add(recipient.getEmail());
+          }
+          sentTo.add(emails);
+          return new MandrillMessageStatus[] {status("good@example.com", "sent", null),
+              status("bounced@example.com", "rejected", "hard-bounce")};
+        })) {
+      final MandrillServiceMessage message = MandrillServiceMessage.newBuilder()
+          .withTemplate("template")
+          .withEmails(Arrays.asList("good@example.com", "bounced@example.com")).build();
+      service.sendMail(message);
+      service.sendMail(message);
+    }
+  }
+
+  private static MandrillMessageStatus status(String email, String status, String rejectReason) {
+    final com.google.gson.JsonObject json = new com.google.gson.JsonObject();
+    json.addProperty("email", email);
+    json.addProperty("status", status);
+    json.addProperty("reject_reason", rejectReason);
+    return com.microtripit.mandrillapp.lutung.model.LutungGsonUtils.getGson().fromJson(json,
+        MandrillMessageStatus.class);
+  }
+}
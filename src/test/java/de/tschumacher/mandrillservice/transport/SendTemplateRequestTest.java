@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Tobias Schumacher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package de.tschumacher.mandrillservice.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microtripit.mandrillapp.lutung.model.LutungGsonUtils;
+import com.microtripit.mandrillapp.lutung.view.MandrillMessage;
+
+import de.tschumacher.mandrillservice.domain.MandrillServiceAttachment;
+
+public class SendTemplateRequestTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldStreamAttachmentIntoPayload() throws IOException {
+    final byte[] content = new byte[200_001];
+    new Random(42).nextBytes(content);
+    final File file = this.folder.newFile("large.bin");
+    Files.write(content, file);
+
+    final MandrillMessage message = new MandrillMessage();
+    message.setSubject("subject");
+
+    final SendTemplateRequest request = new SendTemplateRequest("key", "template", message,
+        Collections.singletonList(MandrillServiceAttachment.newBuilder()
+            .withFile(file)
+            .withName("large.bin")
+            .withType("application/octet-stream")
+            .build()));
+
+    final HttpEntity entity = ((HttpPost) request.getRequest()).getEntity();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+
+    final JsonObject payload =
+        new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+    final JsonObject actualMessage = payload.getAsJsonObject("message");
+    final JsonObject attachment = actualMessage.getAsJsonArray("attachments").get(0).getAsJsonObject();
+
+    Assert.assertEquals("template", payload.get("template_name").getAsString());
+    Assert.assertEquals("subject", actualMessage.get("subject").getAsString());
+    Assert.assertEquals("large.bin", attachment.get("name").getAsString());
+    Assert.assertEquals(Base64.encodeBase64String(content), attachment.get("content").getAsString());
+    Assert.assertTrue(entity.isRepeatable());
+    Assert.assertArrayEquals(out.toByteArray(), ByteStreams.toByteArray(entity.getContent()));
+  }
+
+  @Test
+  public void shouldStreamSuppliedAttachmentIntoPayload() throws IOException {
+    final byte[] content = new byte[200_001];
+    new Random(42).nextBytes(content);
+
+    final MandrillMessage message = new MandrillMessage();
+    message.setSubject("subject");
+
+    final SendTemplateRequest request = new SendTemplateRequest("key", "template", message,
+        Collections.singletonList(MandrillServiceAttachment.newBuilder()
+            .withContentSupplier(() -> new ByteArrayInputStream(content))
+            .withName("generated.bin")
+            .withType("application/octet-stream")
+            .build()));
+
+    final HttpEntity entity = ((HttpPost) request.getRequest()).getEntity();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+
+    final JsonObject payload =
+        new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+    final JsonObject attachment = payload.getAsJsonObject("message").getAsJsonArray("attachments")
+        .get(0).getAsJsonObject();
+
+    Assert.assertEquals("generated.bin", attachment.get("name").getAsString());
+    Assert.assertEquals(Base64.encodeBase64String(content), attachment.get("content").getAsString());
+    Assert.assertFalse(entity.isRepeatable());
+  }
+
+  @Test
+  public void shouldWriteMessageLikeLutung() throws IOException {
+    final MandrillMessage.Recipient recipient = new MandrillMessage.Recipient();
+    recipient.setEmail("test@example.com");
+    recipient.setName("J\u00fcrgen \"Tester\" \ud83d\ude00");
+    recipient.setType(MandrillMessage.Recipient.Type.CC);
+
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("Reply-To", "reply@example.com");
+
+    final MandrillMessage.MergeVarBucket bucket = new MandrillMessage.MergeVarBucket();
+    bucket.setRcpt("test@example.com");
+    bucket.setVars(new MandrillMessage.MergeVar[] {new MandrillMessage.MergeVar("count", 3)});
+
+    final MandrillMessage message = new MandrillMessage();
+    message.setSubject("line\nbreak\ttab \u20ac");
+    message.setFromEmail("from@example.com");
+    message.setTo(Collections.singletonList(recipient));
+    message.setHeaders(headers);
+    message.setInlineCss(true);
+    message.setPreserveRecipients(false);
+    message.setGlobalMergeVars(Arrays.asList(new MandrillMessage.MergeVar("name", "value")));
+    message.setMergeVars(Collections.singletonList(bucket));
+    message.setTags("first", "second");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((HttpPost) new SendTemplateRequest("key", "template", message, Collections.emptyList())
+        .getRequest()).getEntity().writeTo(out);
+
+    final JsonObject payload =
+        new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+
+    Assert.assertEquals(LutungGsonUtils.getGson().toJsonTree(message), payload.get("message"));
+  }
+
+  @Test
+  public void shouldDropNullMapValues() throws IOException {
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("Reply-To", "reply@example.com");
+    headers.put("X-Empty", null);
+
+    final MandrillMessage message = new MandrillMessage();
+    message.setSubject("subject");
+    message.setHeaders(headers);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((HttpPost) new SendTemplateRequest("key", "template", message, Collections.emptyList())
+        .getRequest()).getEntity().writeTo(out);
+
+    final JsonObject payload =
+        new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+
+    // lutung cannot serialise null map values at all, so compare without the entry
+    headers.remove("X-Empty");
+    Assert.assertEquals(new JsonParser().parse(LutungGsonUtils.getGson().toJson(message)),
+        payload.get("message"));
+  }
+
+}